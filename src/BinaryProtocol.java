@@ -0,0 +1,242 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BinaryProtocol holds the constants and encoding helpers for the compact framed protocol a
+ * client can ask for during the handshake, by adding a 'b' to its t/f line. The server answers
+ * with an ACK line and from then on:
+ *
+ * Commands are a single opcode byte. MOVE is followed by one byte holding the direction and
+ * TEXT by a length and that many UTF-8 bytes, which are handled exactly like a text line.
+ * Replies are a length followed by that many UTF-8 bytes; a reply holding several lines keeps
+ * its '\n' separators, so a client sees the same lines as it would in the text protocol.
+ *
+ * Lengths are unsigned varints, seven bits per byte with the top bit set on all but the last.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class BinaryProtocol {
+
+    static final char HANDSHAKE_FLAG = 'b';
+    static final String ACK = "BINARY";
+
+    static final byte HELLO = 1;
+    static final byte MOVE = 2;
+    static final byte PICKUP = 3;
+    static final byte LOOK = 4;
+    static final byte QUIT = 5;
+    static final byte MAP = 6;
+    static final byte TEXT = 7;
+
+    //Longest TEXT command accepted, so a server never has to buffer an unbounded line.
+    static final int MAX_TEXT_LENGTH = 512;
+
+    //Returned by commandLength for a command which can never be valid.
+    static final int MALFORMED = -2;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * @param opcode - a command without arguments.
+     * @return - the encoded command.
+     */
+    static byte[] command(byte opcode) {
+        return new byte[]{opcode};
+    }
+
+    /**
+     * @param direction - N, E, S or W.
+     * @return - the encoded MOVE command.
+     */
+    static byte[] moveCommand(char direction) {
+        return new byte[]{MOVE, (byte) direction};
+    }
+
+    /**
+     * @param text - any text command or chat message.
+     * @return - the encoded TEXT command.
+     */
+    static byte[] textCommand(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException("text command longer than " + MAX_TEXT_LENGTH + " bytes");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 3);
+        out.write(TEXT);
+        writeLength(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param reply - the reply, which may hold several lines.
+     * @return - the length prefixed reply.
+     */
+    static byte[] encodeReply(String reply) {
+        byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 5);
+        writeLength(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads one reply frame.
+     * @param in - the stream from the server.
+     * @return - the reply, or null if the stream ended between frames.
+     * @throws IOException - if the stream ends part way through a frame.
+     */
+    static String readReply(InputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[readLength(in, first)];
+        readFully(in, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the text of a TEXT command whose opcode has already been read.
+     * @param in - the stream from the client.
+     * @return - the text.
+     * @throws IOException - if the stream ends or the length is out of range.
+     */
+    static String readText(InputStream in) throws IOException {
+        int length = readLength(in, in.read());
+        if (length < 0 || length > MAX_TEXT_LENGTH) {
+            throw new IOException("text command longer than " + MAX_TEXT_LENGTH + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        readFully(in, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Works out whether a whole command is waiting in the buffer, without consuming it.
+     * @param buffer - bytes received, from position to limit.
+     * @return - the size of the command at the buffer's position, -1 if it is incomplete or
+     * MALFORMED if its length is out of range, in which case the client should be dropped.
+     */
+    static int commandLength(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int pos = buffer.position();
+        switch (buffer.get(pos)) {
+            case MOVE:
+                return buffer.remaining() >= 2 ? 2 : -1;
+            case TEXT:
+                int length = 0;
+                for (int i = 1; i <= 5; i++) {
+                    if (i >= buffer.remaining()) {
+                        return -1;
+                    }
+                    int b = buffer.get(pos + i) & 0xFF;
+                    length |= (b & 0x7F) << (7 * (i - 1));
+                    if ((b & 0x80) == 0) {
+                        if (length < 0 || length > MAX_TEXT_LENGTH) {
+                            return MALFORMED;
+                        }
+                        int total = 1 + i + length;
+                        return buffer.remaining() >= total ? total : -1;
+                    }
+                }
+                return MALFORMED;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Reads the text of a TEXT command from a buffer positioned just after its opcode.
+     * @param buffer - holding the whole command, see commandLength.
+     * @return - the text.
+     * @throws IllegalArgumentException - if the length is out of range.
+     */
+    static String readText(ByteBuffer buffer) {
+        int length = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift >= 35) {
+                throw new IllegalArgumentException("malformed length");
+            }
+            b = buffer.get() & 0xFF;
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (length < 0 || length > MAX_TEXT_LENGTH || length > buffer.remaining()) {
+            throw new IllegalArgumentException("text command length " + length + " out of range");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a '\n' terminated line one byte at a time, so that nothing after the line is taken
+     * from the stream. Used for the handshake, before either side knows which protocol is in use.
+     * @param in - the stream to read from.
+     * @return - the line without its line ending, or null at the end of the stream.
+     * @throws IOException - if the stream cannot be read.
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        while ((length & ~0x7F) != 0) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+    }
+
+    private static int readLength(InputStream in, int first) throws IOException {
+        int b = first;
+        int length = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (length < 0) {
+                    throw new IOException("malformed length");
+                }
+                return length;
+            }
+            b = in.read();
+        }
+        throw new IOException("malformed length");
+    }
+
+    private static void readFully(InputStream in, byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            int count = in.read(bytes, read, bytes.length - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * ByteTileStore keeps one byte per tile in a single flat array. Tiles are ASCII, so a byte holds
+ * any of them.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class ByteTileStore extends GrowableTileStore {
+
+    private byte[] tiles = new byte[256];
+    private int size = 0;
+
+    /**
+     * Constructor. Makes an empty store to add rows to.
+     */
+    ByteTileStore() {
+    }
+
+    /**
+     * Constructor. Makes a store holding the given tiles, which it takes over.
+     * @param tiles - every tile, row by row.
+     */
+    ByteTileStore(byte[] tiles) {
+        this.tiles = tiles;
+        size = tiles.length;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    char get(int index) {
+        return (char) tiles[index];
+    }
+
+    @Override
+    void set(int index, char tile) {
+        tiles[index] = (byte) tile;
+    }
+
+    @Override
+    void appendRow(String row) {
+        reserve(size + row.length());
+        for (int i = 0; i < row.length(); i++) {
+            tiles[size++] = (byte) row.charAt(i);
+        }
+    }
+
+    @Override
+    void appendRow(ByteBuffer bytes, int from, int length) {
+        reserve(size + length);
+        bytes.get(from, tiles, size, length);
+        size += length;
+    }
+
+    @Override
+    void reserve(int count) {
+        if (count > tiles.length) {
+            tiles = Arrays.copyOf(tiles, Math.max(count, tiles.length + (tiles.length >> 1)));
+        }
+    }
+
+    @Override
+    void trim() {
+        if (tiles.length != size) {
+            tiles = Arrays.copyOf(tiles, size);
+        }
+    }
+
+    @Override
+    void decode(int from, char[] dest, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            dest[offset + i] = (char) tiles[from + i];
+        }
+    }
+}
@@ -0,0 +1,345 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ChunkedTileStore serves the tiles of a map too big to hold in memory. The map is kept in a
+ * chunk file, cut into CHUNK x CHUNK squares, and a chunk is only read in the first time a tile
+ * in it is needed. Once more than the budgeted number of chunks are in memory the least recently
+ * used unchanged ones are dropped again, so memory follows where the players actually are and a
+ * huge map opens straight away.
+ *
+ * A chunk which has been changed, by a gold pickup, stays in memory for the rest of the game; the
+ * file itself is never written to, so every game starts from the same map.
+ *
+ * The chunk file is laid out as:
+ * "DODC", format version, width, height, win, name length (ints) and the name in UTF-8, then
+ * every chunk in row order, CHUNK * CHUNK bytes each, with the parts of edge chunks which fall off
+ * the map filled with #. A chunk is found from its number alone, so there is no index to read.
+ * Use convert to make one from a text map.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class ChunkedTileStore extends TileStore {
+
+    static final String EXTENSION = ".chunks";
+    static final int MAGIC = 0x444F4443;
+    static final int FORMAT_VERSION = 1;
+    static final int CHUNK = 64;
+    //Chunks kept in memory by default, 64 MB of tiles.
+    static final int DEFAULT_BUDGET = 16384;
+
+    private final FileChannel channel;
+    private final long dataStart;
+    private final int width;
+    private final int height;
+    private final int chunksWide;
+    private final String name;
+    private final int win;
+    private final int budget;
+
+    private final AtomicReferenceArray<byte[]> chunks;
+    //Guarded by this. Dirty chunks are never dropped; referenced ones get a second chance.
+    private final boolean[] dirty;
+    private final boolean[] referenced;
+    private int loaded = 0;
+    private int clockHand = 0;
+
+    private ChunkedTileStore(FileChannel channel, long dataStart, int width, int height,
+                             String name, int win, int budget) {
+        this.channel = channel;
+        this.dataStart = dataStart;
+        this.width = width;
+        this.height = height;
+        this.name = name;
+        this.win = win;
+        this.budget = Math.max(4, budget);
+        chunksWide = (width + CHUNK - 1) / CHUNK;
+        int count = chunksWide * ((height + CHUNK - 1) / CHUNK);
+        chunks = new AtomicReferenceArray<>(count);
+        dirty = new boolean[count];
+        referenced = new boolean[count];
+    }
+
+    /**
+     * Opens a chunk file, reading only its header.
+     * @param file - the chunk file.
+     * @return - the store, with no chunks loaded yet.
+     * @throws IOException - if the file cannot be read or is not a chunk file.
+     */
+    static ChunkedTileStore open(File file) throws IOException {
+        return open(file, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Opens a chunk file, reading only its header.
+     * @param file - the chunk file.
+     * @param budget - the most chunks to keep in memory, not counting changed ones.
+     * @return - the store, with no chunks loaded yet.
+     * @throws IOException - if the file cannot be read or is not a chunk file.
+     */
+    static ChunkedTileStore open(File file, int budget) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(24);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException(file + " is not a chunk file");
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+            int win = header.getInt();
+            int nameLength = header.getInt();
+            if (width < 1 || height < 1 || nameLength < 0 || nameLength > channel.size() - 24) {
+                throw new IOException(file + " has a malformed header");
+            }
+            if ((long) width * height > MAX_TILES) {
+                throw new IOException(file + " is " + width + "x" + height + ", more tiles than a map can hold");
+            }
+            ByteBuffer nameBytes = ByteBuffer.allocate(nameLength);
+            readFully(channel, nameBytes, 24);
+            String name = new String(nameBytes.array(), StandardCharsets.UTF_8);
+            return new ChunkedTileStore(channel, 24 + nameBytes.capacity(), width, height, name, win, budget);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw new IOException(file + " is not a valid chunk file", e);
+        }
+    }
+
+    /**
+     * @return - the width of the map
+     */
+    int width() {
+        return width;
+    }
+
+    /**
+     * @return - the height of the map
+     */
+    int height() {
+        return height;
+    }
+
+    /**
+     * @return - the name of the map.
+     */
+    String name() {
+        return name;
+    }
+
+    /**
+     * @return - the gold needed to win.
+     */
+    int win() {
+        return win;
+    }
+
+    @Override
+    boolean isLazy() {
+        return true;
+    }
+
+    @Override
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    int size() {
+        return width * height;
+    }
+
+    @Override
+    char get(int index) {
+        int y = index / width;
+        int x = index % width;
+        int chunk = chunkOf(y, x);
+        return (char) chunk(chunk)[(y % CHUNK) * CHUNK + x % CHUNK];
+    }
+
+    @Override
+    synchronized void set(int index, char tile) {
+        int y = index / width;
+        int x = index % width;
+        int chunk = chunkOf(y, x);
+        byte[] tiles = chunk(chunk);
+        dirty[chunk] = true;
+        tiles[(y % CHUNK) * CHUNK + x % CHUNK] = (byte) tile;
+    }
+
+    private int chunkOf(int y, int x) {
+        return (y / CHUNK) * chunksWide + x / CHUNK;
+    }
+
+    /**
+     * @param chunk - the number of a chunk.
+     * @return - its tiles, read from the file if they are not in memory.
+     */
+    private byte[] chunk(int chunk) {
+        byte[] tiles = chunks.get(chunk);
+        if (tiles == null) {
+            tiles = load(chunk);
+        }
+        referenced[chunk] = true;
+        return tiles;
+    }
+
+    private synchronized byte[] load(int chunk) {
+        byte[] tiles = chunks.get(chunk);
+        if (tiles != null) {
+            return tiles;
+        }
+        tiles = new byte[CHUNK * CHUNK];
+        try {
+            readFully(channel, ByteBuffer.wrap(tiles), dataStart + (long) chunk * tiles.length);
+        } catch (IOException e) {
+            //The map file has gone or been cut short, show the chunk as solid wall.
+            System.err.println("could not read map chunk " + chunk + ": " + e.getMessage());
+            Arrays.fill(tiles, (byte) '#');
+        }
+        while (loaded >= budget && evictOne()) {
+            loaded--;
+        }
+        chunks.set(chunk, tiles);
+        loaded++;
+        return tiles;
+    }
+
+    /**
+     * Drops the first unchanged chunk the clock hand finds which has not been used since the
+     * hand last passed it.
+     * @return - false if every chunk in memory has been changed.
+     */
+    private boolean evictOne() {
+        int count = chunks.length();
+        for (int scanned = 0; scanned < 2 * count; scanned++) {
+            int chunk = clockHand;
+            clockHand = (clockHand + 1) % count;
+            if (chunks.get(chunk) == null || dirty[chunk]) {
+                continue;
+            }
+            if (referenced[chunk]) {
+                referenced[chunk] = false;
+                continue;
+            }
+            chunks.set(chunk, null);
+            return true;
+        }
+        return false;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("unexpected end of chunk file");
+            }
+            position += count;
+        }
+    }
+
+    /**
+     * Turns a text map into a chunk file. Only CHUNK rows are held in memory at a time, so maps
+     * far bigger than the heap can be converted.
+     * @param textMap - a map in the usual name/win/rows format.
+     * @param chunkFile - the file to write.
+     * @throws IOException - if the map cannot be read or is wrongly formatted.
+     */
+    static void convert(File textMap, File chunkFile) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(textMap));
+             FileChannel out = FileChannel.open(chunkFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            String nameLine = reader.readLine();
+            String winLine = reader.readLine();
+            if (nameLine == null || !nameLine.startsWith("name ") || winLine == null || !winLine.startsWith("win ")) {
+                throw new IOException("map file invalid or wrongly formatted");
+            }
+            byte[] name = nameLine.substring(4).trim().getBytes(StandardCharsets.UTF_8);
+            int win = Integer.parseInt(winLine.substring(4).trim());
+
+            long dataStart = 24 + name.length;
+            int width = -1;
+            int height = 0;
+            byte[][] band = null;
+            String row;
+            while ((row = reader.readLine()) != null) {
+                if (width < 0) {
+                    width = row.length();
+                    band = new byte[CHUNK][width];
+                }
+                if (row.length() != width) {
+                    throw new IOException("map file invalid or wrongly formatted");
+                }
+                for (int x = 0; x < width; x++) {
+                    band[height % CHUNK][x] = (byte) row.charAt(x);
+                }
+                height++;
+                if (height % CHUNK == 0) {
+                    writeBand(out, dataStart, band, CHUNK, width, height / CHUNK - 1);
+                }
+            }
+            if (width < 0) {
+                throw new IOException("map file invalid or wrongly formatted");
+            }
+            if (height % CHUNK != 0) {
+                writeBand(out, dataStart, band, height % CHUNK, width, height / CHUNK);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate((int) dataStart);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(width).putInt(height).putInt(win)
+                    .putInt(name.length).put(name).flip();
+            out.write(header, 0);
+        }
+    }
+
+    /**
+     * Writes one band of CHUNK rows as a row of chunks.
+     */
+    private static void writeBand(FileChannel out, long dataStart, byte[][] band, int rows, int width,
+                                  int bandNumber) throws IOException {
+        int chunksWide = (width + CHUNK - 1) / CHUNK;
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK * CHUNK);
+        for (int cx = 0; cx < chunksWide; cx++) {
+            chunk.clear();
+            for (int y = 0; y < CHUNK; y++) {
+                for (int x = cx * CHUNK; x < (cx + 1) * CHUNK; x++) {
+                    chunk.put(y < rows && x < width ? band[y][x] : (byte) '#');
+                }
+            }
+            chunk.flip();
+            long position = dataStart + ((long) bandNumber * chunksWide + cx) * CHUNK * CHUNK;
+            while (chunk.hasRemaining()) {
+                position += out.write(chunk, position);
+            }
+        }
+    }
+
+    /**
+     * Converts a text map into a chunk file.
+     * @param args - the text map and the chunk file to write.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: ChunkedTileStore <map.txt> <map" + EXTENSION + ">");
+            System.exit(1);
+        }
+        convert(new File(args[0]), new File(args[1]));
+    }
+}
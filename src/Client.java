@@ -1,5 +1,10 @@
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Client Class. This class is used by PlayGame in order to communicate with the server so that
@@ -11,8 +16,19 @@ import java.net.Socket;
  */
 public class Client implements IGameLogic {
 
+    private Socket socket;
     private PrintWriter dataToServer;
-    private boolean active;
+    private OutputStream socketOutput;
+    //Asked for at the handshake, but only used once the server has acknowledged it.
+    private boolean binaryRequested = false;
+    private boolean binary = false;
+    //Commands made while the server has yet to answer a request for binary, null once it has.
+    private List<Runnable> pending = null;
+    private volatile boolean active;
+
+    //Longest to wait for the server to answer a request for the binary protocol before
+    //sending the commands held back as text.
+    static final long ACK_TIMEOUT = 5000;
 
     Client() throws IOException {}
 
@@ -21,10 +37,11 @@ public class Client implements IGameLogic {
      * with the Server is possible.
      */
     Client(Socket socket) throws IOException {
-        Socket s = socket;
+        this.socket = socket;
 
         // Start PrintWriter to manage writing to the Server
-        dataToServer = new PrintWriter(s.getOutputStream(), true);
+        dataToServer = new PrintWriter(socket.getOutputStream(), true);
+        socketOutput = new BufferedOutputStream(socket.getOutputStream());
 
         active = true;
     }
@@ -36,7 +53,7 @@ public class Client implements IGameLogic {
      */
     @Override
     public void setMap(File file) {
-        dataToServer.println(file);
+        sendMessage(String.valueOf(file));
     }
 
     /**
@@ -45,7 +62,7 @@ public class Client implements IGameLogic {
      */
     @Override
     public String hello() {
-        dataToServer.println("HELLO");
+        send("HELLO", () -> BinaryProtocol.command(BinaryProtocol.HELLO));
 
         return "";
     }
@@ -56,7 +73,7 @@ public class Client implements IGameLogic {
      */
     @Override
     public String move(String move, char direction) {
-        dataToServer.println(move + " " + direction);
+        send(move + " " + direction, () -> BinaryProtocol.moveCommand(direction));
 
         return "";
     }
@@ -67,7 +84,7 @@ public class Client implements IGameLogic {
      */
     @Override
     public String pickup() {
-        dataToServer.println("pickup");
+        send("pickup", () -> BinaryProtocol.command(BinaryProtocol.PICKUP));
 
         return "";
     }
@@ -78,7 +95,7 @@ public class Client implements IGameLogic {
      */
     @Override
     public String look() {
-        dataToServer.println("look");
+        send("look", () -> BinaryProtocol.command(BinaryProtocol.LOOK));
 
         return "";
     }
@@ -94,28 +111,171 @@ public class Client implements IGameLogic {
 
     @Override
     public String quitGame() {
-        dataToServer.println("QUIT");
+        send("QUIT", () -> BinaryProtocol.command(BinaryProtocol.QUIT));
         return "The game will now exit";
     }
 
     public void initialHandshake(boolean worldMap) {
-        char toSend;
+        initialHandshake(worldMap, false);
+    }
+
+    /**
+     * Tells the server what type of client this is, and optionally asks for the binary protocol.
+     * The server reads the handshake unbuffered, so commands can be sent straight after it. If
+     * binary was asked for, commands are held back until the server has answered, which the
+     * ClientListener reports through handshakeAnswered, and are sent as text if it was refused.
+     * Nothing waits for the answer, so this is safe to call from the Swing event thread.
+     * @param worldMap - whether this client wants the whole world map.
+     * @param useBinary - whether to use the compact binary protocol from now on.
+     */
+    public void initialHandshake(boolean worldMap, boolean useBinary) {
+        initialHandshake(worldMap, useBinary, false);
+    }
+
+    /**
+     * Tells the server what type of client this is, optionally asking for the binary protocol
+     * and, for a world view, for map updates as deltas rather than the whole map.
+     * @param worldMap - whether this client wants the whole world map.
+     * @param useBinary - whether to use the compact binary protocol from now on.
+     * @param useDeltas - whether map updates should only hold the tiles which changed.
+     */
+    public void initialHandshake(boolean worldMap, boolean useBinary, boolean useDeltas) {
+        initialHandshake(worldMap, useBinary, useDeltas, null, null);
+    }
+
+    /**
+     * As above, joining a particular room on the server rather than the default one.
+     * @param worldMap - whether this client wants the whole world map.
+     * @param useBinary - whether to use the compact binary protocol from now on.
+     * @param useDeltas - whether map updates should only hold the tiles which changed.
+     * @param room - the room to join, or null for the default room.
+     * @param mapName - the map in the maps folder to open the room on if it is not open yet,
+     *                or null for the server's map.
+     */
+    public void initialHandshake(boolean worldMap, boolean useBinary, boolean useDeltas, String room, String mapName) {
+        String toSend;
 
         if (worldMap) {
-            toSend = 't';
+            toSend = "t";
         } else {
-            toSend = 'f';
+            toSend = "f";
+        }
+        if (useBinary) {
+            toSend += BinaryProtocol.HANDSHAKE_FLAG;
+        }
+        if (useDeltas) {
+            toSend += MapDelta.HANDSHAKE_FLAG;
+        }
+        if (room != null) {
+            toSend += " " + room;
+            if (mapName != null) {
+                toSend += " " + mapName;
+            }
+        }
+        synchronized (this) {
+            binaryRequested = useBinary;
+            if (useBinary) {
+                pending = new ArrayList<>();
+                CompletableFuture.delayedExecutor(ACK_TIMEOUT, TimeUnit.MILLISECONDS)
+                        .execute(this::handshakeTimedOut);
+            }
+            dataToServer.println(toSend);
         }
-        dataToServer.println(toSend);
         System.out.println("Sent: " + toSend + " to Server.");
 
     }
 
     public void sendMapRequest(){
-        dataToServer.println("MAP");
+        send("MAP", () -> BinaryProtocol.command(BinaryProtocol.MAP));
     }
 
     public void sendMessage(String toSend) {
-        dataToServer.println(toSend);
+        send(toSend, () -> BinaryProtocol.textCommand(toSend));
+    }
+
+    /**
+     * Called by the ClientListener with the first line the server sends. The binary protocol is
+     * only used once the server has acknowledged it, and any commands held back until then are
+     * sent. An acknowledgement arriving after the commands have gone as text is a protocol error,
+     * as the server would read them as binary, so the connection is closed.
+     * @param firstLine - the first line from the server.
+     * @return - false if the connection was closed.
+     */
+    synchronized boolean handshakeAnswered(String firstLine) {
+        boolean ack = BinaryProtocol.ACK.equals(firstLine);
+        if (binaryRequested && pending == null && ack) {
+            close();
+            return false;
+        }
+        binary = binaryRequested && ack;
+        sendPending();
+        return true;
+    }
+
+    /**
+     * Gives up waiting for an answer to a binary request, sending the held back commands as text.
+     */
+    private synchronized void handshakeTimedOut() {
+        if (pending != null) {
+            System.out.println("Server did not answer the binary request, using text.");
+            sendPending();
+        }
+    }
+
+    private void sendPending() {
+        if (pending == null) {
+            return;
+        }
+        List<Runnable> commands = pending;
+        pending = null;
+        for (Runnable command : commands) {
+            command.run();
+        }
+    }
+
+    /**
+     * Sends a command in whichever protocol is in use, or holds it back while the server has yet
+     * to answer a request for binary.
+     * @param text - the command in the text protocol.
+     * @param binaryCommand - makes the command in the binary protocol.
+     */
+    private synchronized void send(String text, Supplier<byte[]> binaryCommand) {
+        Runnable command = () -> {
+            if (binary) {
+                sendBinary(binaryCommand.get());
+            } else {
+                dataToServer.println(text);
+            }
+        };
+        if (pending != null) {
+            pending.add(command);
+        } else {
+            command.run();
+        }
+    }
+
+    /**
+     * Closes the connection after the server broke the protocol.
+     */
+    private void close() {
+        active = false;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //Already closed.
+        }
+    }
+
+    /**
+     * Writes an encoded binary command to the Server.
+     * @param command - the encoded command.
+     */
+    private void sendBinary(byte[] command) {
+        try {
+            socketOutput.write(command);
+            socketOutput.flush();
+        } catch (IOException e) {
+            active = false;
+        }
     }
 }
@@ -1,6 +1,6 @@
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.Socket;
 
 /**
@@ -13,9 +13,13 @@ import java.net.Socket;
  */
 public class ClientListener implements Runnable{
 
-    private BufferedReader fromServer;
+    private InputStream fromServer;
+    private boolean binary = false;
+    private boolean firstLine = true;
     private boolean active;
     private Communication received;
+    //Told how the server answered the handshake, may be null.
+    private final Client client;
 
     /**
      * Constructor
@@ -23,11 +27,22 @@ public class ClientListener implements Runnable{
      * @param communication - The object to store the received data.
      */
     ClientListener(Socket s, Communication communication){
+        this(s, communication, null);
+    }
+
+    /**
+     * Constructor
+     * @param s - The socket to listen at.
+     * @param communication - The object to store the received data.
+     * @param client - The client sending on the same socket, told whether binary was acknowledged.
+     */
+    ClientListener(Socket s, Communication communication, Client client){
 
+        this.client = client;
         received = communication;
         active = true;
         try {
-            fromServer = new BufferedReader(new InputStreamReader(s.getInputStream()));
+            fromServer = new BufferedInputStream(s.getInputStream());
         } catch (IOException e) {
             System.out.println(e);
         }
@@ -49,7 +64,34 @@ public class ClientListener implements Runnable{
             try {
                 // Get input from server
 
-                String input = fromServer.readLine();
+                if (binary) {
+                    String reply = BinaryProtocol.readReply(fromServer);
+                    if (reply == null) {
+                        active = false;
+                        updateCommunication("Lost Connection");
+                    } else {
+                        //Each line of a reply is stored separately, as it would be in the text protocol.
+                        for (String line : reply.split("\n", -1)) {
+                            updateCommunication(line);
+                        }
+                    }
+                    continue;
+                }
+
+                String input = BinaryProtocol.readLine(fromServer);
+
+                //The server acknowledges a request for the binary protocol before anything else.
+                if (firstLine && client != null && !client.handshakeAnswered(input)) {
+                    active = false;
+                    updateCommunication("Lost Connection");
+                    continue;
+                }
+                if (firstLine && BinaryProtocol.ACK.equals(input)) {
+                    binary = true;
+                    firstLine = false;
+                    continue;
+                }
+                firstLine = false;
 
                 updateCommunication(input);
             }
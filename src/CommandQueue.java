@@ -0,0 +1,104 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * CommandQueue is a bounded ring buffer which any number of connection threads can add commands
+ * to and a single engine thread takes them from, without any locks.
+ *
+ * Every slot has a sequence number. A producer claims the next position with a compare and set
+ * on the tail, fills in the slot and then publishes it by setting its sequence to position + 1.
+ * The consumer takes a slot once its sequence says it has been published, and frees it for the
+ * next lap of the ring by setting its sequence to position + capacity.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class CommandQueue {
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final GameLoop.Command[] commands;
+    private final GameLoop.Completion[] completions;
+    private final AtomicLong tail = new AtomicLong();
+
+    //Only ever touched by the consumer.
+    private long head = 0;
+
+    /**
+     * Constructor.
+     * @param capacity - the number of slots, rounded up to a power of two.
+     */
+    CommandQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        commands = new GameLoop.Command[size];
+        completions = new GameLoop.Completion[size];
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds a command. Safe to call from any thread.
+     * @param command - the work to run on the engine thread.
+     * @param completion - where the reply goes.
+     * @return - false if the queue is full.
+     */
+    boolean offer(GameLoop.Command command, GameLoop.Completion completion) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long difference = sequences.get((int) position & mask) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+        int index = (int) position & mask;
+        commands[index] = command;
+        completions[index] = completion;
+        //A volatile write, so that a parked engine thread is never missed, see GameLoop.submit.
+        sequences.set(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Runs the oldest command, if one has been published, and hands its reply on. Only the
+     * engine thread may call this.
+     * @return - false if the queue was empty.
+     */
+    boolean runNext() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return false;
+        }
+        GameLoop.Command command = commands[index];
+        GameLoop.Completion completion = completions[index];
+        commands[index] = null;
+        completions[index] = null;
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+
+        String reply;
+        try {
+            reply = command.run();
+        } catch (RuntimeException e) {
+            System.out.println("Command failed: " + e);
+            reply = "FAIL";
+        }
+        completion.complete(reply);
+        return true;
+    }
+
+    /**
+     * @return - whether there is nothing waiting for the consumer.
+     */
+    boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+}
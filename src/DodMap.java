@@ -0,0 +1,208 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * DodMap reads and writes compiled maps, .dodmap files, which load with a header read and one
+ * bulk copy instead of parsing and checking every row of a text map. Use main, or compile, to
+ * make one from a text map; Map.readMap picks up a compiled map next to a text one as long as it
+ * is not older.
+ *
+ * The file is laid out as:
+ * "DODM", format version, width, height, win, bits per tile, flags, name length (ints) and the
+ * name in UTF-8, then the tiles. Maps narrow enough for a ByteTileStore keep a byte per tile;
+ * wider ones are packed four bits to a tile, sixteen to a long, after the sixteen byte alphabet,
+ * exactly as PackedTileStore holds them. If the INDICES flag is set the positions of every gold
+ * tile and then every exit follow, each as a count and then the indices.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class DodMap {
+
+    static final String EXTENSION = ".dodmap";
+    static final int MAGIC = 0x444F444D;
+    static final int FORMAT_VERSION = 1;
+    static final int INDICES = 1;
+
+    final String name;
+    final int win;
+    final int width;
+    final int height;
+    final TileStore tiles;
+    //Null if the file did not list them.
+    final int[] gold;
+    final int[] exits;
+
+    private DodMap(String name, int win, int width, int height, TileStore tiles, int[] gold, int[] exits) {
+        this.name = name;
+        this.win = win;
+        this.width = width;
+        this.height = height;
+        this.tiles = tiles;
+        this.gold = gold;
+        this.exits = exits;
+    }
+
+    /**
+     * @param textMap - a text map.
+     * @return - where its compiled map would be, next to it.
+     */
+    static File compiledFile(File textMap) {
+        String name = textMap.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(textMap.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + EXTENSION);
+    }
+
+    /**
+     * Reads a compiled map.
+     * @param file - the .dodmap file.
+     * @return - the map.
+     * @throws IOException - if the file cannot be read or is not a compiled map.
+     */
+    static DodMap read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too big to map, use a chunk file");
+            }
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                throw new IOException(file + " is not a compiled map");
+            }
+            int width = in.getInt();
+            int height = in.getInt();
+            int win = in.getInt();
+            int bits = in.getInt();
+            int flags = in.getInt();
+            byte[] name = new byte[in.getInt()];
+            in.get(name);
+            int size = Math.multiplyExact(width, height);
+
+            TileStore tiles;
+            if (bits == Byte.SIZE) {
+                byte[] bytes = new byte[size];
+                in.get(bytes);
+                tiles = new ByteTileStore(bytes);
+            } else if (bits == PackedTileStore.BITS) {
+                byte[] alphabet = new byte[PackedTileStore.MAX_KINDS];
+                in.get(alphabet);
+                long[] words = new long[(size + PackedTileStore.PER_WORD - 1) / PackedTileStore.PER_WORD];
+                in.asLongBuffer().get(words);
+                in.position(in.position() + words.length * Long.BYTES);
+                tiles = new PackedTileStore(alphabet, words, size);
+            } else {
+                throw new IOException(file + " has " + bits + " bits a tile");
+            }
+
+            int[] gold = null;
+            int[] exits = null;
+            if ((flags & INDICES) != 0) {
+                gold = readIndices(in);
+                exits = readIndices(in);
+            }
+            return new DodMap(new String(name, StandardCharsets.UTF_8), win, width, height, tiles, gold, exits);
+        } catch (RuntimeException e) {
+            //A short or corrupt file runs off the end of the buffer.
+            throw new IOException(file + " is not a valid compiled map", e);
+        }
+    }
+
+    private static int[] readIndices(ByteBuffer in) {
+        int[] indices = new int[in.getInt()];
+        in.asIntBuffer().get(indices);
+        in.position(in.position() + indices.length * Integer.BYTES);
+        return indices;
+    }
+
+    /**
+     * Writes a loaded map out as a compiled map, listing its gold and exits.
+     * @param map - a map read from a text file.
+     * @param file - the .dodmap file to write.
+     * @throws IOException - if the file cannot be written.
+     */
+    static void write(Map map, File file) throws IOException {
+        TileStore tiles = map.tiles;
+        int size = tiles.size();
+        IntStream.Builder goldTiles = IntStream.builder();
+        IntStream.Builder exitTiles = IntStream.builder();
+        for (int i = 0; i < size; i++) {
+            char tile = tiles.get(i);
+            if (tile == 'G') {
+                goldTiles.add(i);
+            } else if (tile == 'E') {
+                exitTiles.add(i);
+            }
+        }
+
+        byte[] name = map.getMapName().getBytes(StandardCharsets.UTF_8);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(map.getMapWidth());
+            out.writeInt(map.getMapHeight());
+            out.writeInt(map.getWin());
+            out.writeInt(tiles instanceof PackedTileStore ? PackedTileStore.BITS : Byte.SIZE);
+            out.writeInt(INDICES);
+            out.writeInt(name.length);
+            out.write(name);
+            if (tiles instanceof PackedTileStore) {
+                PackedTileStore packed = (PackedTileStore) tiles;
+                out.write(packed.alphabet());
+                for (long word : packed.words()) {
+                    out.writeLong(word);
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    out.writeByte(tiles.get(i));
+                }
+            }
+            writeIndices(out, goldTiles.build().toArray());
+            writeIndices(out, exitTiles.build().toArray());
+        }
+    }
+
+    private static void writeIndices(DataOutputStream out, int[] indices) throws IOException {
+        out.writeInt(indices.length);
+        for (int index : indices) {
+            out.writeInt(index);
+        }
+    }
+
+    /**
+     * Compiles a text map into a .dodmap file.
+     * @param textMap - the text map.
+     * @param file - the compiled map to write.
+     * @throws IOException - if the text map is wrongly formatted or the file cannot be written.
+     */
+    static void compile(File textMap, File file) throws IOException {
+        if (!textMap.isFile()) {
+            throw new IOException(textMap + " not found");
+        }
+        Map map = new Map() { };
+        map.readTextMap(textMap);
+        write(map, file);
+    }
+
+    /**
+     * Compiles text maps, each into a .dodmap file next to it.
+     * @param args - the text maps.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: DodMap <map.txt>...");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            File textMap = new File(arg);
+            compile(textMap, compiledFile(textMap));
+        }
+    }
+}
@@ -1,325 +1,421 @@
-//Concept of JNI learnt from http://javapapers.com/core-java/how-to-call-a-c-program-from-java/
-
 import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 /**
  * GameLogic Class, which is used to setup the game for each player and position them on
- * the map. It provides a central map which is shared by all the players and a central
- * player map which is used to keep track of the locations of players on the map so that
- * collisions can be avoided. This class is also responsible for co-ordinating the response
+ * the map. It uses the central map of the player's GameRoom, which is shared by all the players
+ * in that room, and its central player map which is used to keep track of the locations of
+ * players on the map so that collisions can be avoided. This class is also responsible for co-ordinating the response
  * that relates to the request made by the client.
  *
+ * The game is run entirely in Java on top of PlayerMap. World views are drawn from the room's
+ * map and player map themselves, see writeWorldFrame, so a room holds no second copy of the map.
+ * Every command is run on the single GameLoop thread, so nothing here takes a lock; moves still
+ * claim tiles atomically on the player map, which keeps it consistent for the threads that read it.
+ *
  * @author Callum Coles
- * @version 1.0
- * @release 10/03/2016
+ * @version 1.1
+ * @release 18/10/2026
  */
 public class GameLogic implements IGameLogic{
 
-	private boolean myWin = false;
+	private static final int LOOK_RADIUS = 5;
+	//Largest view a LOOK may ask for.
+	static final int MAX_LOOK_RADIUS = 15;
 
-	static {
-		System.loadLibrary("JNILogicC");
-	}
+	private static final Random RANDOM = new Random();
+	private static final AtomicInteger NEXT_PLAYER_ID = new AtomicInteger();
 
-	/**
-	 * Constructor. Sets up the user input ready to set up which map is going to be used.
-	 * Creates a new general map and a new playerMap for the players to be placed on to enable
-	 * multiple players to appear together.
-	 */
-	public GameLogic(File mapFile){
-	}
+	//Marks this player's tile on the player map.
+	private final int playerId = NEXT_PLAYER_ID.incrementAndGet();
+
+	//The game this player is in, with the map and player map shared by everybody in it.
+	private final GameRoom room;
+	private final PlayerMap map;
+	private final LookCache lookCache;
+	private final RegionVersions versions;
+
+	private volatile int playerY = -1;
+	private volatile int playerX = -1;
+	private int collectedGold = 0;
+	private volatile boolean myWin = false;
+	private volatile boolean active = true;
+
+	//Reused by every look, so that looking allocates nothing but the reply.
+	private char[] lookBuffer = new char[LOOK_RADIUS * (LOOK_RADIUS + 1)];
+	private int lookTop;
+	private int lookLeft;
+	private int lookStride;
+	private final IntConsumer markPlayer = this::markPlayer;
 
 	/**
-	 * Reads a map from a given file with the format:
-	 * name <mapName>
-	 * win <totalGold>
-	 *
-	 * @param mapFile A File pointed to a correctly formatted map file
+	 * Constructor. Joins the game in the given room. The player is not on the map until
+	 * placePlayer has been run on the game loop.
+	 * @param room the room the player is in.
 	 */
-	public static native void readMap(File mapFile);
+	public GameLogic(GameRoom room){
+		this.room = room;
+		map = room.getMap();
+		lookCache = room.getLookCache();
+		versions = map.getRegionVersions();
+	}
 
 	/**
-	 * Sets the map up, player map up and initiates the player.
+	 * As in Interface, the map is chosen by the room.
 	 * @param file
      */
-	public native void setMap(File file);
+	public void setMap(File file){
 
-	/**
-	 * Sets the map as passed to.
-	 * @param mapName the name of the map to be used.
-     */
-	public native void selectMap(String mapName);
+	}
 
 	/**
 	 * MapName Accessor
 	 * @return MapName
      */
-	public native String getMapName();
+	public String getMapName(){
+		return map.getMapName();
+	}
 
 	/**
 	 * Prints how much gold is still required to win!
 	 */
-	public native String hello();
+	public String hello(){
+		return "GOLD: " + (map.getWin() - collectedGold);
+	}
 
 	/**
-	 * By proving a character direction from the set of {N,S,E,W} the gamelogic 
-	 * checks if this location can be visited by the player. 
+	 * By proving a character direction from the set of {N,S,E,W} the gamelogic
+	 * checks if this location can be visited by the player.
 	 * If it is true, the player is moved to the new location.
 	 * @return If the move was executed Success is returned. If the move could not execute Fail is returned.
 	 */
-	public native String move(String move, char direction);
+	public String move(String move, char direction){
+		int oldY = playerY;
+		int oldX = playerX;
+		int newY = oldY;
+		int newX = oldX;
+		switch (Character.toUpperCase(direction)) {
+			case 'N':
+				newY -= 1;
+				break;
+			case 'S':
+				newY += 1;
+				break;
+			case 'E':
+				newX += 1;
+				break;
+			case 'W':
+				newX -= 1;
+				break;
+			default:
+				return "FAIL";
+		}
+
+		//Claim the new tile before giving up the old one, so the player is never off the map.
+		if (!active || oldY < 0 || !map.claimTile(newY, newX, playerId)) {
+			return "FAIL";
+		}
+		map.releaseTile(oldY, oldX, playerId);
+		playerY = newY;
+		playerX = newX;
+		publishPlayerTile(newY, newX);
+		publishPlayerTile(oldY, oldX);
+
+		if (checkWin()) {
+			myWin = true;
+			room.declareWinner();
+			return "SUCCESS\nYou have won the game!";
+		}
+		return "SUCCESS";
+	}
 
 	/**
 	 * Pickup command from the player
 	 * @return whether or not the pickup was successful and the amount of Gold that the user now has.
      */
-	public native String pickup();
+	public String pickup(){
+		int y = playerY;
+		int x = playerX;
+		if (active && y >= 0 && map.lookAtTile(y, x) == 'G') {
+			replaceTile(y, x, '.');
+			collectedGold++;
+			return "SUCCESS, GOLD COINS: " + collectedGold;
+		}
+		return "FAIL\nThere is nothing to pick up...";
+	}
 
 	/**
 	 * The method shows the dungeon around the player location
 	 * @return the area around the dungeon so that the player can see it.
 	 */
-	public native String look();
-
-	/**
-	 * @return - the width of the map
-     */
-	public native int mapWidth();
+	public String look(){
+		return look(LOOK_RADIUS);
+	}
 
 	/**
-	 * @return - the height of the map
+	 * Shows the dungeon around the player as far as a lamp of the given size lights it. The view
+	 * is written into a buffer kept by this player, so the reply is the only thing allocated, and
+	 * kept in the room's LookCache so that looking again while nothing in view has changed costs
+	 * a lookup.
+	 * @param radius the width and height of the view, odd and from 3 to MAX_LOOK_RADIUS.
+	 * @return the rows of the view, or FAIL if the radius cannot be used.
 	 */
-	public native int mapHeight();
+	public String look(int radius){
+		if (radius < 3 || radius > MAX_LOOK_RADIUS || radius % 2 == 0) {
+			return "FAIL";
+		}
+		int y = playerY;
+		int x = playerX;
+		int top = y - radius / 2;
+		int left = x - radius / 2;
+		//Taken before the window is read, so a change made while reading it is never cached.
+		long stamp = versions.stamp(top, left, top + radius - 1, left + radius - 1);
+		int position = y * map.getMapWidth() + x;
+		String cached = y < 0 ? null : lookCache.get(position, radius, stamp);
+		if (cached != null) {
+			return cached;
+		}
+		int stride = radius + 1;
+		if (lookBuffer.length < radius * stride) {
+			lookBuffer = new char[radius * stride];
+		}
+		int length = map.lookWindow(y, x, radius, lookBuffer, 0);
+		lookTop = top;
+		lookLeft = left;
+		lookStride = stride;
+		map.forEachPlayerIn(lookTop, lookLeft, lookTop + radius - 1, lookLeft + radius - 1, markPlayer);
+		//The corners are never lit, whoever is standing there.
+		int last = (radius - 1) * stride;
+		lookBuffer[0] = 'X';
+		lookBuffer[radius - 1] = 'X';
+		lookBuffer[last] = 'X';
+		lookBuffer[last + radius - 1] = 'X';
+		lookBuffer[radius / 2 * stride + radius / 2] = 'P';
+		String reply = new String(lookBuffer, 0, length);
+		if (y >= 0) {
+			lookCache.put(position, radius, stamp, reply);
+		}
+		return reply;
+	}
 
 	/**
-	 * @return - the whole map in its char array state.
+	 * @param radius the argument of a LOOK command
+	 * @return the radius it asks for, or -1 if it is not a number, which look turns down.
 	 */
-	public native char[][] getMapChars();
-
-	/**
-	 * getWin
-	 * @return the amount of gold required to win and escape.
-     */
-	public native int getWin();
+	static int parseRadius(String radius){
+		try {
+			return Integer.parseInt(radius.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
 
 	/**
-	 * Quits the game when called
+	 * Marks another player in the view being built by look.
+	 * @param tile the index of the player's tile on the map.
 	 */
-	public native String quitGame();
+	private void markPlayer(int tile){
+		int width = map.getMapWidth();
+		lookBuffer[(tile / width - lookTop) * lookStride + tile % width - lookLeft] = 'P';
+	}
 
 	/**
-	 * gameRunning
-	 * @return whether the game is active.
+	 * @return - the width of the map
      */
-	public native boolean gameRunning();
+	public int mapWidth(){
+		return map.getMapWidth();
+	}
 
 	/**
-	 * Look at the player map tile
-	 * @param y - y map position
-	 * @param x - x map position
-     * @return - the character at that position.
-     */
-	public native char lookAtPlayerTile(int y, int x);
+	 * @return - the height of the map
+	 */
+	public int mapHeight(){
+		return map.getMapHeight();
+	}
 
 	/**
-	 * @return - whether or not the client has been updated of all changes.
-     */
-	public native boolean upToDate();
+	 * @return - a copy of the whole map in its char array state.
+	 */
+	public char[][] getMapChars(){
+		return map.getMap();
+	}
 
 	/**
-	 * Set the updated changes variable to the current number of changes that have been made.
+	 * @return - the room the player is in.
 	 */
-	public native void setUpdated();
+	GameRoom getRoom() {
+		return room;
+	}
 
 	/**
-	 * @return - the player x position
-     */
-	public native int getPlayerXPos();
+	 * Copies the whole map, row by row, into the given array, with every player shown as p.
+	 * Take a snapshot of getRegionVersions first to follow the changes made after it.
+	 * @param frame - an array of at least mapWidth() * mapHeight() characters.
+	 */
+	public void writeWorldFrame(char[] frame) {
+		int width = mapWidth();
+		for (int y = 0; y < mapHeight(); y++) {
+			map.copyRow(y, frame, y * width);
+		}
+		map.forEachPlayerIn(0, 0, mapHeight() - 1, width - 1, i -> frame[i] = 'p');
+	}
 
 	/**
-	 * @return - the player y position
+	 * @param y - y map position
+	 * @param x - x map position
+	 * @return - the tile as writeWorldFrame shows it, with a player shown as p.
 	 */
-	public native int getPlayerYPos();
+	char worldTile(int y, int x) {
+		return map.lookAtPlayerTile(y, x) == 'P' ? 'p' : map.lookAtTile(y, x);
+	}
 
 	/**
-	 * Remove the player from the map.
+	 * @return - a counter which goes up every time the map or a player position changes.
 	 */
-	public native void removePlayer();
+	public long getMapVersion() {
+		return versions.total();
+	}
 
 	/**
-	 * @return - whether or not the player has won.
-     */
-	public native boolean getMyWin();
-
-}
-
-	protected int changesMade = 0;
-	protected char[][] map;
-	protected String mapName;
-	private int totalGoldOnMap;
-	private boolean mapChanged = false;
+	 * @return - the change counters for each region of the map, see RegionVersions.
+	 */
+	RegionVersions getRegionVersions() {
+		return versions;
+	}
 
-	
 	/**
-	 * setWin. Sets up the amount of gold required to win the game in this map.
-	 * @param in
-	 * @return The amount of gold required to win this map.
+	 * Builds the map as this player sees it, with P for the player and p for everybody else.
+	 * @return - the whole map, row by row.
 	 */
-	protected boolean setWin(String in) {
-		if (!in.startsWith("win "))
-			return true;
-		int win = 0;
-		try { win = Integer.parseInt(in.split(" ")[1].trim());
-		} catch (NumberFormatException n){
-			System.err.println("the map does not contain a valid win criteria!");
+	public char[] getPlayerFrame() {
+		int width = mapWidth();
+		char[] frame = new char[width * mapHeight()];
+		writeWorldFrame(frame);
+		int self = getPlayerYPos() * width + getPlayerXPos();
+		if (getPlayerXPos() >= 0 && getPlayerXPos() < width && self >= 0 && self < frame.length
+				&& frame[self] == 'p') {
+			frame[self] = 'P';
 		}
-		if (win < 0)
-			return true;
-		this.totalGoldOnMap = win;
-
-		return false;
+		return frame;
 	}
 
 	/**
-	 * setName. Sets the name of the map currently being used.
-	 * @param in
-	 * @return The name of the map to be used.
-	 */
-	protected boolean setName(String in) {
-		if (!in.startsWith("name ") && in.length() < 4)
-			return true;
-		String name = in.substring(4).trim();
-
-		if (name.length() < 1)
-			return true;
-
-		this.mapName = name;
-
-		return false;
+	 * getWin
+	 * @return the amount of gold required to win and escape.
+     */
+	public int getWin(){
+		return map.getWin();
 	}
 
-
 	/**
-	 * The method replaces a char at a given position of the map with a new char
-	 * @param y the vertical position of the tile to replace
-	 * @param x the horizontal position of the tile to replace
-	 * @param tile the char character of the tile to replace
-	 * @return The old character which was replaced will be returned.
+	 * Quits the game when called
 	 */
-	protected char replaceTile(int y, int x, char tile) {
-		char output = map[y][x];
-		map[y][x] = tile;
-		incChangesMade();
-		return output;
+	public String quitGame(){
+		removePlayer();
+		active = false;
+		return "The game will now exit";
 	}
 
 	/**
-	 * Prints out the map.
-	 */
-	protected void printMap(){
-		for (int y = 0; y < getMapHeight(); y++) {
-			for (int x = 0; x < getMapWidth(); x++) {
-				System.out.print(map[y][x]);
-			}
-			System.out.println();
-		}
+	 * gameRunning
+	 * @return whether the game is active.
+     */
+	public boolean gameRunning(){
+		return active;
 	}
 
 	/**
-	 * The method returns the Tile at a given location. The tile is not removed.
-	 * @param y the vertical position of the tile to replace
-	 * @param x the horizontal position of the tile to replace
-	 * @return The old character which was replaced will be returned.
-	 */
-	protected char lookAtTile(int y, int x) {
-		if (y < 0 || x < 0 || y >= map.length || x >= map[0].length)
-			return '#';
-		char output = map[y][x];
-
-		return output;
+	 * Look at the player map tile
+	 * @param y - y map position
+	 * @param x - x map position
+     * @return - the character at that position.
+     */
+	public char lookAtPlayerTile(int y, int x) {
+		return map.lookAtPlayerTile(y, x);
 	}
 
 	/**
-	 * This method is used to retrieve a map view around a certain location.
-	 * The method should be used to get the look() around the player location.
-	 * @param y Y coordinate of the location
-	 * @param x X coordinate of the location
-	 * @param radius The radius defining the area which will be returned.
-	 * Without the usage of a lamp the standard value is 5 units.
-	 * @return
-	 */
-	protected char[][] lookWindow(int y, int x, int radius) {
-		char[][] reply = new char[radius][radius];
-		for (int i = 0; i < radius; i++) {
-			for (int j = 0; j < radius; j++) {
-				int posX = x + j - radius/2;
-				int posY = y + i - radius/2;
-				if (posX >= 0 && posX < getMapWidth() &&
-						posY >= 0 && posY < getMapHeight())
-					reply[j][i] = map[posY][posX];
-				else
-					reply[j][i] = '#';
-			}
-		}
-		reply[0][0] = 'X';
-		reply[radius-1][0] = 'X';
-		reply[0][radius-1] = 'X';
-		reply[radius-1][radius-1] = 'X';
-
-		return reply;
+	 * @return - the player x position
+     */
+	public int getPlayerXPos(){
+		return playerX;
 	}
 
 	/**
-	 * getWin
-	 * @return The amount of gold on the map.
+	 * @return - the player y position
 	 */
-	public int getWin() {
-		return totalGoldOnMap;
+	public int getPlayerYPos(){
+		return playerY;
 	}
 
 	/**
-	 * Accessory for mapName.
-	 * @return mapName
+	 * Remove the player from the map.
 	 */
-	public String getMapName() {
-		return mapName;
+	public void removePlayer(){
+		int y = playerY;
+		int x = playerX;
+		if (y < 0) {
+			return;
+		}
+		playerY = -1;
+		playerX = -1;
+		map.releaseTile(y, x, playerId);
+		publishPlayerTile(y, x);
 	}
 
 	/**
-	 * Accessor
-	 * @return width of the map.
-	 */
-	protected int getMapWidth() {
-		return map[0].length;
+	 * @return - whether or not the player has won.
+     */
+	public boolean getMyWin(){
+		return myWin;
 	}
 
 	/**
-	 * Accessor
-	 * @return height of map.
+	 * Places the player on a random empty tile which no other player is standing on. Like every
+	 * other change to the game it must be run on the game loop.
 	 */
-	protected int getMapHeight() {
-		return map.length;
+	public void placePlayer(){
+		int tiles = map.getMapWidth() * map.getMapHeight();
+		int start = RANDOM.nextInt(tiles);
+		for (int i = 0; i < tiles; i++) {
+			int tile = (start + i) % tiles;
+			int y = tile / map.getMapWidth();
+			int x = tile % map.getMapWidth();
+			if (map.lookAtTile(y, x) == '.' && map.claimTile(y, x, playerId)) {
+				playerY = y;
+				playerX = x;
+				publishPlayerTile(y, x);
+				return;
+			}
+		}
 	}
 
-	public char[][] getMap(){
-		return map;
+	/**
+	 * @return - whether the player is on the exit with enough gold to win.
+	 */
+	private boolean checkWin(){
+		return map.lookAtTile(playerY, playerX) == 'E' && collectedGold >= map.getWin();
 	}
 
 	/**
-	 * Increments the changes made variables by one.
+	 * Changes a map tile. The region's version is bumped last, so that anything seeing it move
+	 * reads the new tile, and then the world views are woken.
 	 */
-	protected synchronized void incChangesMade(){
-		changesMade += 1;
+	private void replaceTile(int y, int x, char tile){
+		map.replaceTile(y, x, tile);
+		versions.bump(y, x);
+		room.changed();
 	}
 
 	/**
-	 * Accessor
-	 * @return changesMade variable.
+	 * Bumps the version of the region a player has moved into or out of and wakes the world
+	 * views.
 	 */
-	public int getChangesMade(){
-		return changesMade;
+	private void publishPlayerTile(int y, int x){
+		versions.bump(y, x);
+		room.changed();
 	}
 
-
 }
-
@@ -0,0 +1,142 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * GameLoop is the single thread which every change to the game goes through. Connections no
+ * longer call into their GameLogic themselves; they submit commands to a shared CommandQueue,
+ * which the engine thread drains in the order they arrived, and get each reply back through a
+ * completion slot of their own. Only one thread ever changes the map, so the game state is the
+ * same whatever order the connection threads happen to run in, and under load a whole batch of
+ * commands is run without the engine thread stopping.
+ *
+ * Every server mode runs its commands here, so there is no multi-threaded way of running them
+ * left and the map needs no locks. The striped region locks which once let moves in different
+ * parts of the map run side by side have been removed for that reason.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public class GameLoop implements Runnable {
+
+    static final int QUEUE_SIZE = 1024;
+    //Most commands run before checking whether the loop has been stopped.
+    static final int BATCH_SIZE = 64;
+
+    private final CommandQueue queue = new CommandQueue(QUEUE_SIZE);
+    private volatile Thread engine;
+    private volatile boolean sleeping = false;
+    private volatile boolean running = false;
+
+    /**
+     * Work run on the engine thread, normally a single GameLogic call.
+     */
+    interface Command {
+
+        /**
+         * @return - the reply for the client.
+         */
+        String run();
+    }
+
+    /**
+     * Receives the reply to a command. Called on the engine thread, so it must not block.
+     */
+    interface Completion {
+
+        /**
+         * @param reply - the reply for the client.
+         */
+        void complete(String reply);
+    }
+
+    /**
+     * A completion slot for a connection with its own thread, which waits for each reply before
+     * reading its next command. It is reused for every command the connection sends.
+     */
+    static final class Slot implements Completion {
+
+        private volatile Thread waiter;
+        private volatile boolean done;
+        private String reply;
+
+        /**
+         * Runs a command on the engine thread and waits for its reply.
+         * @param loop - the game loop.
+         * @param command - the work to run.
+         * @return - the reply for the client.
+         */
+        String call(GameLoop loop, Command command) {
+            done = false;
+            waiter = Thread.currentThread();
+            loop.submit(command, this);
+            while (!done) {
+                LockSupport.park(this);
+            }
+            return reply;
+        }
+
+        @Override
+        public void complete(String reply) {
+            this.reply = reply;
+            done = true;
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Starts the engine thread.
+     */
+    synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this, "GameLoop");
+        thread.setDaemon(true);
+        engine = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the engine thread once the current batch has run.
+     */
+    synchronized void stop() {
+        running = false;
+        LockSupport.unpark(engine);
+    }
+
+    /**
+     * Queues a command. If the queue is full the caller waits for space, which slows the
+     * busiest connections down rather than dropping their commands.
+     * @param command - the work to run on the engine thread.
+     * @param completion - where the reply goes.
+     */
+    void submit(Command command, Completion completion) {
+        while (!queue.offer(command, completion)) {
+            LockSupport.unpark(engine);
+            Thread.yield();
+        }
+        if (sleeping) {
+            LockSupport.unpark(engine);
+        }
+    }
+
+    /**
+     * The engine thread. Runs commands in batches and parks when there are none.
+     */
+    public void run() {
+        while (running) {
+            int ran = 0;
+            while (ran < BATCH_SIZE && queue.runNext()) {
+                ran++;
+            }
+            if (ran == 0) {
+                sleeping = true;
+                if (queue.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                sleeping = false;
+            }
+        }
+    }
+}
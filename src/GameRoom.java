@@ -0,0 +1,104 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * GameRoom is one game: its map and player map, the broadcaster feeding the world views drawn
+ * from them and whether anybody has won yet. Every GameLogic
+ * belongs to exactly one room, so games in different rooms never see each other.
+ *
+ * Rooms are created and shared out by a RoomManager.
+ *
+ * The map shares its tiles with every other room on the same file and keeps only those its game
+ * has changed, see Map.readMap, so a room's memory follows its changes and its players rather
+ * than the size of the map.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public class GameRoom {
+
+    private final String name;
+    private final PlayerMap map;
+    private final WorldBroadcaster broadcaster;
+    private final LookCache lookCache = new LookCache();
+    private volatile boolean anyWin = false;
+
+    //Guarded by the RoomManager, which counts players in and out.
+    int players = 0;
+
+    /**
+     * Constructor. Reads the map.
+     * @param name - the name clients use to join the room.
+     * @param mapFile - the map the game is played on.
+     * @param ticker - runs the broadcaster's tick, shared by every room.
+     * @param coalesceDelay - milliseconds the broadcaster waits after a change, see WorldBroadcaster.
+     * @throws IOException - if the map cannot be read or is wrongly formatted.
+     */
+    GameRoom(String name, File mapFile, ScheduledExecutorService ticker, int coalesceDelay) throws IOException {
+        this.name = name;
+        map = new PlayerMap();
+        map.readMap(mapFile);
+        broadcaster = new WorldBroadcaster(ticker, coalesceDelay);
+        broadcaster.start();
+    }
+
+    /**
+     * @return - the name clients use to join the room.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return - the map and player map of the game.
+     */
+    PlayerMap getMap() {
+        return map;
+    }
+
+    /**
+     * @return - the broadcaster which world views in this room subscribe to.
+     */
+    WorldBroadcaster getBroadcaster() {
+        return broadcaster;
+    }
+
+    /**
+     * @return - the LOOK replies built in this room.
+     */
+    LookCache getLookCache() {
+        return lookCache;
+    }
+
+    /**
+     * Tells the world views that the map has changed, see WorldBroadcaster.wake.
+     */
+    void changed() {
+        broadcaster.wake();
+    }
+
+    /**
+     * Records that a player has won, which ends the game for everybody else in the room.
+     */
+    void declareWinner() {
+        anyWin = true;
+        broadcaster.wake();
+    }
+
+    /**
+     * @return - whether anybody in the room has won.
+     */
+    boolean hasWinner() {
+        return anyWin;
+    }
+
+    /**
+     * Stops sending frames, once the last player has left.
+     */
+    void close() {
+        broadcaster.stop();
+        map.close();
+    }
+}
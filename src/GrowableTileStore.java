@@ -0,0 +1,53 @@
+import java.nio.ByteBuffer;
+
+/**
+ * GrowableTileStore is a TileStore which a map can be read into, a row at a time. Only the
+ * stores built by the map loader are growable; a chunked map is read from its chunk file and an
+ * overlay sits on a store which is already loaded, so neither can be added to.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public abstract class GrowableTileStore extends TileStore {
+
+    //Maps at least this wide are packed.
+    static final int PACKED_WIDTH = 1024;
+
+    /**
+     * @param width - the width of the map about to be read.
+     * @return - an empty store suited to a map of that width.
+     */
+    static GrowableTileStore forWidth(int width) {
+        return width >= PACKED_WIDTH ? new PackedTileStore() : new ByteTileStore();
+    }
+
+    /**
+     * Adds a row of tiles to the end of the store.
+     * @param row - the tiles, one character each.
+     * @throws IllegalArgumentException - if a tile cannot be stored.
+     */
+    abstract void appendRow(String row);
+
+    /**
+     * Adds a row of tiles, one byte each, straight from a buffer such as a mapped map file.
+     * @param bytes - holds the row; its position is not changed.
+     * @param from - the position in bytes of the first tile.
+     * @param length - the number of tiles.
+     * @throws IllegalArgumentException - if a tile cannot be stored.
+     */
+    abstract void appendRow(ByteBuffer bytes, int from, int length);
+
+    /**
+     * Makes room for at least this many tiles in all, so that a map whose size is known up front
+     * is read without the store growing and copying itself along the way.
+     * @param tiles - the number of tiles expected.
+     */
+    void reserve(int tiles) {
+    }
+
+    /**
+     * Frees any space left over once every row has been added.
+     */
+    abstract void trim();
+}
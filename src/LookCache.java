@@ -0,0 +1,63 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LookCache keeps the LOOK replies built in one room, by position and radius, so that a player
+ * looking again from where it, or anyone, last looked gets the reply back from one lookup rather
+ * than having it built again. Each reply is kept with the RegionVersions stamp of its window and
+ * is only handed back while that stamp is still current, so a reply is never out of date.
+ *
+ * The same reply serves every player, since whoever looks from a tile is the P in the middle.
+ * The cache is emptied whenever it grows past MAX_ENTRIES.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class LookCache {
+
+    static final int MAX_ENTRIES = 1 << 14;
+
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * A reply and the stamp of its window when it was built.
+     */
+    private static final class Entry {
+        final long stamp;
+        final String reply;
+
+        Entry(long stamp, String reply) {
+            this.stamp = stamp;
+            this.reply = reply;
+        }
+    }
+
+    private static Long key(int position, int radius) {
+        return ((long) position << 8) | radius;
+    }
+
+    /**
+     * @param position - the index of the tile looked from.
+     * @param radius - the size of the view.
+     * @param stamp - the stamp of the window now.
+     * @return - the reply, or null if there is none built at that stamp.
+     */
+    String get(int position, int radius, long stamp) {
+        Entry entry = entries.get(key(position, radius));
+        return entry != null && entry.stamp == stamp ? entry.reply : null;
+    }
+
+    /**
+     * Keeps a reply.
+     * @param position - the index of the tile looked from.
+     * @param radius - the size of the view.
+     * @param stamp - the stamp of the window, taken before it was read.
+     * @param reply - the reply.
+     */
+    void put(int position, int radius, long stamp, String reply) {
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+        }
+        entries.put(key(position, radius), new Entry(stamp, reply));
+    }
+}
@@ -1,23 +1,43 @@
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 /**
  * Map class. This class is used to load, read and then relay information about a map.
  * It is a simple class which is first used by GameLogic when setting up the game.
  *
+ * Tiles are held in a TileStore, row by row, which keeps a byte per tile for most maps and
+ * packs very wide ones into four bits a tile. Use index to find a tile rather than working out
+ * the offset by hand. A map saved as a chunk file is not read up front at all, its tiles are
+ * read in as players come near them, see ChunkedTileStore and isLazy.
+ *
+ * Text maps are memory mapped and their rows copied into the store straight from the mapped
+ * file, so reading a map makes no object per row. Files too big to map in one go are read line
+ * by line instead. A text map with an up to date compiled map next to it, see DodMap, is loaded
+ * from the compiled map, falling back to the text if that cannot be read. Either way a file is
+ * parsed once per process, see MapRegistry, and each map after that shares its tiles, keeping
+ * only the tiles it changes, see OverlayTileStore.
+ *
  * @author Callum Coles
  * @version 1.1
  * @release 06/04/2016
  */
 public abstract class Map {
 
-	protected int changesMade = 0;
-	protected char[][] map;
+	protected TileStore tiles;
+	protected int width;
+	protected int height;
+	protected RegionVersions regionVersions;
 	protected String mapName;
+	//Where the gold and exits are, kept up to date by replaceTile. Null for lazy maps.
+	protected TileIndex gold;
+	protected TileIndex exits;
 	private int totalGoldOnMap;
 	private boolean mapChanged = false;
 
@@ -25,7 +45,7 @@ public abstract class Map {
 	 * Constructor. Initialises the variables.
 	 */
 	public Map(){
-		map = null;
+		tiles = null;
 		mapName = "";
 		totalGoldOnMap = -1;
 	}
@@ -33,8 +53,9 @@ public abstract class Map {
 	/**
 	 * Constructor. Initialises the variables, uses the same map as existing player.
 	 * @param mapFile
+	 * @throws IOException if the map cannot be read or is wrongly formatted
      */
-	public Map(File mapFile){
+	public Map(File mapFile) throws IOException {
 		this();
 		readMap(mapFile);
 	}
@@ -45,49 +66,159 @@ public abstract class Map {
 	 * win <totalGold>
 	 * 
 	 * @param mapFile A File pointed to a correctly formatted map file
+	 * @throws IOException if the map cannot be read or is wrongly formatted
 	 */
-	public void readMap(File mapFile) {
-		// a buffered reader for the map
-		BufferedReader reader = null;
-		
-		try {
-			reader = new BufferedReader(new FileReader(mapFile));
-		} catch (FileNotFoundException e) {
-			try {
-				reader = new BufferedReader(new FileReader(new File("maps","example_map.txt")));
-			} catch (FileNotFoundException e1) {
-				System.err.println("no valid map name given and default file example_map.txt not found");
-				System.exit(-1);
+	public void readMap(File mapFile) throws IOException {
+		if (mapFile.getName().endsWith(ChunkedTileStore.EXTENSION) && mapFile.isFile()) {
+			readChunkedMap(mapFile);
+			return;
+		}
+		copyFrom(MapRegistry.get(mapFile));
+	}
+
+	/**
+	 * Reads a map from a file without going through MapRegistry, preferring an up to date
+	 * compiled map.
+	 * @param mapFile A File pointed to a correctly formatted map file
+	 * @throws IOException if the map cannot be read or is wrongly formatted
+	 */
+	protected void parseMap(File mapFile) throws IOException {
+		File compiled = mapFile.getName().endsWith(DodMap.EXTENSION) ? mapFile : DodMap.compiledFile(mapFile);
+		if (compiled.isFile() && (compiled == mapFile || compiled.lastModified() >= mapFile.lastModified())
+				&& readDodMap(compiled)) {
+			indexTiles();
+			return;
+		}
+		readTextMap(mapFile);
+		indexTiles();
+	}
+
+	/**
+	 * Finds the gold and exits, unless the map file listed them already.
+	 */
+	private void indexTiles() {
+		if (tiles == null || gold != null)
+			return;
+		gold = new TileIndex('G', width, height);
+		exits = new TileIndex('E', width, height);
+		char[] row = new char[width];
+		for (int y = 0; y < height; y++) {
+			tiles.decode(index(y, 0), row, 0, width);
+			for (int x = 0; x < width; x++) {
+				if (row[x] == 'G')
+					gold.add(index(y, x));
+				else if (row[x] == 'E')
+					exits.add(index(y, x));
 			}
 		}
+	}
+
+	/**
+	 * Reads a map from a text file, ignoring any compiled map.
+	 * @param mapFile A File pointed to a correctly formatted map file
+	 * @throws IOException if the map cannot be read or is wrongly formatted
+	 */
+	protected void readTextMap(File mapFile) throws IOException {
+		if (!mapFile.isFile()) {
+			mapFile = new File("maps","example_map.txt");
+			if (!mapFile.isFile())
+				throw new IOException("no valid map name given and default file example_map.txt not found");
+		}
 		
+		try (FileChannel channel = FileChannel.open(mapFile.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() <= Integer.MAX_VALUE) {
+				tiles = loadMap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			} else {
+				// a buffered reader for the map
+				try (BufferedReader reader = new BufferedReader(new FileReader(mapFile))) {
+					tiles = loadMap(reader);
+				}
+			}
+		} catch (RuntimeException e) {
+			//A header line missing or cut short.
+			tiles = null;
+		}
+		if (tiles == null || width < 1 || height < 1)
+			throw new IOException(mapFile + ": map file invalid or wrongly formatted");
+		createRegions();
+	}
+
+	/**
+	 * Makes this map start from another, sharing its tiles. Changes made to this map are kept
+	 * apart from them, so the other map is not changed.
+	 * @param base a map already read, which must not be changed
+	 */
+	protected void copyFrom(Map base) {
+		tiles = base.tiles == null ? null : new OverlayTileStore(base.tiles);
+		width = base.width;
+		height = base.height;
+		mapName = base.mapName;
+		totalGoldOnMap = base.totalGoldOnMap;
+		gold = base.gold == null ? null : base.gold.copy();
+		exits = base.exits == null ? null : base.exits.copy();
+		if (tiles != null)
+			createRegions();
+	}
+
+	/**
+	 * Loads a compiled map.
+	 * @param mapFile A .dodmap file, see DodMap.compile
+	 * @return whether it was loaded, false if it could not be read.
+	 */
+	private boolean readDodMap(File mapFile) {
 		try {
-			map = loadMap(reader);
-		} catch (IOException e){
-			System.err.println("map file invalid or wrongly formatted");
-			System.exit(-1);
-		} finally {
-			try {
-				reader.close();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			DodMap map = DodMap.read(mapFile);
+			tiles = map.tiles;
+			width = map.width;
+			height = map.height;
+			mapName = map.name;
+			setWin("win " + map.win);
+			if (map.gold != null) {
+				gold = TileIndex.of('G', map.gold, width, height);
+				exits = TileIndex.of('E', map.exits, width, height);
 			}
+			createRegions();
+			return true;
+		} catch (IOException e) {
+			System.err.println(e.getMessage() + ", reading the text map instead");
+			return false;
 		}
+	}
+
+	/**
+	 * Opens a map saved as a chunk file, reading nothing but its header.
+	 * @param mapFile A chunk file, see ChunkedTileStore.convert
+	 * @throws IOException if it cannot be read or is not a chunk file
+	 */
+	private void readChunkedMap(File mapFile) throws IOException {
+		ChunkedTileStore chunks = ChunkedTileStore.open(mapFile);
+		tiles = chunks;
+		width = chunks.width();
+		height = chunks.height();
+		mapName = chunks.name();
+		setWin("win " + chunks.win());
+		createRegions();
+	}
 
+	/**
+	 * Sets up the change counters for each region, once the size of the map is known.
+	 */
+	private void createRegions() {
+		regionVersions = new RegionVersions(width, height);
 	}
 
 	/**
-	 * Reads the map from a file.
+	 * Reads the map from a file, setting the width and height.
 	 * @param reader
-	 * @return
+	 * @return the tiles, row by row.
 	 * @throws IOException
      */
-	protected char[][] loadMap(BufferedReader reader) throws IOException
+	protected TileStore loadMap(BufferedReader reader) throws IOException
 	{
 		
 		boolean error = false;
-		ArrayList<char[]> tempMap = new ArrayList<>();
+		GrowableTileStore map = null;
+		int rows = 0;
 		int width = -1;
 		
 		String in = reader.readLine();
@@ -101,23 +232,25 @@ public abstract class Map {
 		}
 		
 		in = reader.readLine();
-		if (in.charAt(0) == '#' && in.length() > 1)
+		if (in.charAt(0) == '#' && in.length() > 1) {
 			width = in.trim().length();
+			map = GrowableTileStore.forWidth(width);
+		}
 		
 		while (in != null && !error)
 		{
 
-			char[] row = new char[in.length()];
-			if  (in.length() != width)
+			if  (in.length() != width || (long) (rows + 1) * width > TileStore.MAX_TILES) {
 				error = true;
-			
-			for (int i = 0; i < in.length(); i++)
-			{
-				row[i] = in.charAt(i);
+			} else {
+				try {
+					map.appendRow(in);
+					rows++;
+				} catch (IllegalArgumentException e) {
+					error = true;
+				}
 			}
 
-			tempMap.add(row);
-
 			in = reader.readLine();
 		}
 		
@@ -126,14 +259,135 @@ public abstract class Map {
 			setWin("");
 			return null;
 		}
-		char[][] map = new char[tempMap.size()][width];
+		map.trim();
+		this.width = width;
+		this.height = rows;
+		return map;
+	}
+
+	/**
+	 * Reads the map from a mapped file, setting the width and height. Does the same checks as
+	 * loadMap(BufferedReader), but copies each row into the store straight from the file.
+	 * @param file the whole map file
+	 * @return the tiles, row by row.
+	 * @throws IOException if the file has no rows
+	 */
+	protected TileStore loadMap(ByteBuffer file) throws IOException
+	{
+		
+		boolean error = false;
+		GrowableTileStore map = null;
+		int rows = 0;
+		int width = -1;
+		
+		int pos = 0;
+		int end = lineEnd(file, pos);
+		String in = headerLine(file, pos, end);
+		if (in.startsWith("name")){
+			error = setName(in);
+		}
 		
-		for (int i=0;i<tempMap.size();i++){
-			map[i] = tempMap.get(i);
+		pos = nextLine(file, end);
+		end = lineEnd(file, pos);
+		in = headerLine(file, pos, end);
+		if (in.startsWith("win")){
+				error = setWin(in);
 		}
+		
+		pos = nextLine(file, end);
+		if (pos >= file.limit())
+			throw new IOException("map has no rows");
+		end = lineEnd(file, pos);
+		if (file.get(pos) == '#' && end - pos > 1) {
+			int trimmed = end;
+			while (trimmed > pos && file.get(trimmed - 1) <= ' ')
+				trimmed--;
+			width = trimmed - pos;
+			map = GrowableTileStore.forWidth(width);
+			//Exact when every row ends with a single newline.
+			map.reserve((int) Math.min(Integer.MAX_VALUE, (long) (file.limit() - pos + 1) / (width + 1) * width));
+		}
+		
+		while (pos < file.limit() && !error)
+		{
+			end = lineEnd(file, pos);
+			if (end - pos != width) {
+				error = true;
+			} else {
+				try {
+					map.appendRow(file, pos, width);
+					rows++;
+				} catch (IllegalArgumentException e) {
+					error = true;
+				}
+			}
+			
+			pos = nextLine(file, end);
+		}
+		
+		if (error) {
+			setName("");
+			setWin("");
+			return null;
+		}
+		map.trim();
+		this.width = width;
+		this.height = rows;
 		return map;
 	}
 
+	/**
+	 * @param file a mapped map file
+	 * @param from the position of the start of a line
+	 * @return the position of the end of that line, before its line break.
+	 */
+	private static int lineEnd(ByteBuffer file, int from) {
+		int i = from;
+		while (i < file.limit() && file.get(i) != '\n' && file.get(i) != '\r')
+			i++;
+		return i;
+	}
+
+	/**
+	 * @param file a mapped map file
+	 * @param end the end of a line, as given by lineEnd
+	 * @return the position of the start of the next line.
+	 */
+	private static int nextLine(ByteBuffer file, int end) {
+		if (end < file.limit() && file.get(end) == '\r')
+			end++;
+		if (end < file.limit() && file.get(end) == '\n')
+			end++;
+		return end;
+	}
+
+	/**
+	 * @return one of the lines above the rows, as text.
+	 */
+	private static String headerLine(ByteBuffer file, int from, int end) {
+		byte[] line = new byte[end - from];
+		file.get(from, line);
+		return new String(line, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param y the vertical position of a tile on the map
+	 * @param x the horizontal position of a tile on the map
+	 * @return the position of the tile in the tiles array.
+	 */
+	protected final int index(int y, int x) {
+		return y * width + x;
+	}
+
+	/**
+	 * @param y the vertical position of a tile
+	 * @param x the horizontal position of a tile
+	 * @return whether the position is on the map.
+	 */
+	protected final boolean onMap(int y, int x) {
+		return y >= 0 && x >= 0 && y < height && x < width;
+	}
+
 	/**
 	 * setWin. Sets up the amount of gold required to win the game in this map.
 	 * @param in
@@ -174,26 +428,58 @@ public abstract class Map {
 
 	
 	/**
-	 * The method replaces a char at a given position of the map with a new char
+	 * The method replaces a char at a given position of the map with a new char.
+	 * Only the game loop changes tiles, and it bumps the tile's region version once the
+	 * change can be seen, see getRegionVersions.
 	 * @param y the vertical position of the tile to replace
 	 * @param x the horizontal position of the tile to replace
 	 * @param tile the char character of the tile to replace
 	 * @return The old character which was replaced will be returned.
 	 */
 	protected char replaceTile(int y, int x, char tile) {
-		char output = map[y][x];
-		map[y][x] = tile;
-		incChangesMade();
+		int i = index(y, x);
+		char output = tiles.get(i);
+		tiles.set(i, tile);
+		reindex(output, tile, i);
 		return output;
 	}
 
+	/**
+	 * Moves a replaced tile from the index of its old kind to that of its new one.
+	 */
+	private void reindex(char old, char tile, int i) {
+		if (old == tile)
+			return;
+		reindex(gold, old, tile, i);
+		reindex(exits, old, tile, i);
+	}
+
+	private static void reindex(TileIndex index, char old, char tile, int i) {
+		if (index == null)
+			return;
+		if (index.tile() == old)
+			index.remove(i);
+		else if (index.tile() == tile)
+			index.add(i);
+	}
+
+	/**
+	 * Copies one row of the map into an array.
+	 * @param y the row
+	 * @param dest where to copy the tiles
+	 * @param offset the position in dest of the first tile
+	 */
+	protected void copyRow(int y, char[] dest, int offset) {
+		tiles.decode(index(y, 0), dest, offset, width);
+	}
+
 	/**
 	 * Prints out the map.
 	 */
 	protected void printMap(){
 	for (int y = 0; y < getMapHeight(); y++) {
 		for (int x = 0; x < getMapWidth(); x++) {
-			System.out.print(map[y][x]);
+			System.out.print(tiles.get(index(y, x)));
 		}
 		System.out.println();
 	}
@@ -206,41 +492,48 @@ public abstract class Map {
 	 * @return The old character which was replaced will be returned.
 	 */
 	protected char lookAtTile(int y, int x) {
-		if (y < 0 || x < 0 || y >= map.length || x >= map[0].length)
+		if (!onMap(y, x))
 			return '#';
-		char output = map[y][x];
-		
-		return output;
+		return tiles.get(index(y, x));
 	}
 	
 	/**
-	 * This method is used to retrieve a map view around a certain location.
-	 * The method should be used to get the look() around the player location.
+	 * Writes the view around a location straight into a buffer, as the rows of a LOOK reply
+	 * separated by newlines, with X in the corners and # for anything off the map. Nothing is
+	 * allocated, so a caller can reuse the same buffer for every look.
 	 * @param y Y coordinate of the location
 	 * @param x X coordinate of the location
-	 * @param radius The radius defining the area which will be returned. 
-	 * Without the usage of a lamp the standard value is 5 units.
-	 * @return
+	 * @param radius The width and height of the view, odd and at least 3
+	 * @param dest where to write the view, with room for radius * (radius + 1) - 1 characters
+	 * @param offset the position in dest of the first character
+	 * @return the number of characters written.
 	 */
-	protected char[][] lookWindow(int y, int x, int radius) {
-		char[][] reply = new char[radius][radius];
+	protected int lookWindow(int y, int x, int radius, char[] dest, int offset) {
+		int stride = radius + 1;
+		int left = x - radius/2;
+		//The part of each row which is on the map, decoded in one go.
+		int firstX = Math.max(left, 0);
+		int lastX = Math.min(left + radius, getMapWidth());
 		for (int i = 0; i < radius; i++) {
-			for (int j = 0; j < radius; j++) {
-				int posX = x + j - radius/2;
-				int posY = y + i - radius/2;
-				if (posX >= 0 && posX < getMapWidth() && 
-						posY >= 0 && posY < getMapHeight())
-					reply[j][i] = map[posY][posX];
-				else
-					reply[j][i] = '#';
+			int row = offset + i * stride;
+			int posY = y + i - radius/2;
+			if (posY >= 0 && posY < getMapHeight() && firstX < lastX) {
+				Arrays.fill(dest, row, row + firstX - left, '#');
+				tiles.decode(index(posY, firstX), dest, row + firstX - left, lastX - firstX);
+				Arrays.fill(dest, row + lastX - left, row + radius, '#');
+			} else {
+				Arrays.fill(dest, row, row + radius, '#');
 			}
+			if (i < radius - 1)
+				dest[row + radius] = '\n';
 		}
-		reply[0][0] = 'X';
-		reply[radius-1][0] = 'X';
-		reply[0][radius-1] = 'X';
-		reply[radius-1][radius-1] = 'X';
+		int last = offset + (radius - 1) * stride;
+		dest[offset] = 'X';
+		dest[offset + radius - 1] = 'X';
+		dest[last] = 'X';
+		dest[last + radius - 1] = 'X';
 		
-		return reply;
+		return radius * stride - 1;
 	}
 
 	/**
@@ -264,7 +557,7 @@ public abstract class Map {
 	 * @return width of the map.
      */
 	protected int getMapWidth() {
-		return map[0].length;
+		return width;
 	}
 
 	/**
@@ -272,26 +565,55 @@ public abstract class Map {
 	 * @return height of map.
      */
 	protected int getMapHeight() {
-		return map.length;
+		return height;
 	}
 
+	/**
+	 * @return a copy of the whole map, one array per row.
+	 */
 	public char[][] getMap(){
-		return map;
+		char[][] rows = new char[height][width];
+		for (int y = 0; y < height; y++) {
+			tiles.decode(index(y, 0), rows[y], 0, width);
+		}
+		return rows;
+	}
+
+	/**
+	 * @return whether tiles are read in as they are needed, in which case nothing should walk
+	 * over the whole map.
+	 */
+	public boolean isLazy(){
+		return tiles.isLazy();
 	}
 
 	/**
-	 * Increments the changes made variables by one.
+	 * @return where the gold still on the map is, or null for a lazy map.
 	 */
-	protected synchronized void incChangesMade(){
-		changesMade += 1;
+	public TileIndex getGold(){
+		return gold;
+	}
+
+	/**
+	 * @return where the exits are, or null for a lazy map.
+	 */
+	public TileIndex getExits(){
+		return exits;
+	}
+
+	/**
+	 * Lets go of the map file, if it is still being read from.
+	 */
+	public void close(){
+		tiles.close();
 	}
 
 	/**
 	 * Accessor
-	 * @return changesMade variable.
-     */
-	public int getChangesMade(){
-		return changesMade;
+	 * @return the change counters for each region of the map, which also count every change.
+	 */
+	public RegionVersions getRegionVersions(){
+		return regionVersions;
 	}
 
 
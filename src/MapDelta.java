@@ -0,0 +1,123 @@
+/**
+ * MapDelta keeps track of the last world frame sent on a stream of updates, so that only the
+ * tiles which have changed since then need to go over the network. A world view asks for deltas
+ * by adding a 'd' to its handshake line. Two kinds of message are used:
+ *
+ * A keyframe is the whole map as MAP lines, exactly as sent to clients without deltas.
+ * A delta is a single line of the form "DLT y,x,c y,x,c ..." giving the new character of every
+ * tile which has changed, applied in order.
+ *
+ * A keyframe is sent for the first frame, every KEYFRAME_INTERVAL updates and whenever a delta
+ * would be no smaller than the whole map, and a client can ask for one at any time with MAP.
+ * Between keyframes the frame is kept up to date in place and the caller says which tiles it
+ * changed, see changed, so a delta costs time in proportion to the change, not to the map.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public class MapDelta {
+
+    static final char HANDSHAKE_FLAG = 'd';
+    static final String PREFIX = "DLT";
+    static final String KEYFRAME_PREFIX = "MAP";
+    static final int KEYFRAME_INTERVAL = 50;
+
+    private char[] lastSent;
+    private int sinceKeyframe;
+
+    /**
+     * @param size - the number of tiles in the frame about to be sent.
+     * @return - whether the next update must be a keyframe.
+     */
+    boolean keyframeDue(int size) {
+        return lastSent == null || lastSent.length != size || sinceKeyframe >= KEYFRAME_INTERVAL;
+    }
+
+    /**
+     * Works out what needs sending once the last frame sent has been changed in place.
+     * @param frame - the whole map, row by row, as last sent with these tiles changed.
+     * @param width - the width of the map.
+     * @param tiles - the index of every tile changed, in order.
+     * @param count - the number of tiles changed.
+     * @return - a keyframe or delta message, or null if nothing changed.
+     */
+    String changed(char[] frame, int width, int[] tiles, int count) {
+        if (keyframeDue(frame.length)) {
+            return keyframe(frame, width);
+        }
+        if (count == 0) {
+            return null;
+        }
+        StringBuilder message = new StringBuilder(PREFIX);
+        for (int i = 0; i < count; i++) {
+            appendTile(message, tiles[i] / width, tiles[i] % width, frame[tiles[i]]);
+        }
+        if (message.length() >= frame.length + (frame.length / width) * (KEYFRAME_PREFIX.length() + 1)) {
+            return keyframe(frame, width);
+        }
+        lastSent = frame;
+        sinceKeyframe++;
+        return message.toString();
+    }
+
+    /**
+     * Sends the whole frame, which every later delta will be based on.
+     * @param frame - the whole map, row by row. Later changes to it must be passed to changed.
+     * @param width - the width of the map.
+     * @return - the keyframe message.
+     */
+    String keyframe(char[] frame, int width) {
+        lastSent = frame;
+        sinceKeyframe = 0;
+        return encodeKeyframe(frame, width);
+    }
+
+    /**
+     * @param frame - the whole map, row by row.
+     * @param width - the width of the map.
+     * @return - a MAP line for every row of the frame.
+     */
+    static String encodeKeyframe(char[] frame, int width) {
+        StringBuilder message = new StringBuilder(frame.length + (frame.length / width) * 4);
+        for (int row = 0; row < frame.length; row += width) {
+            if (row > 0) {
+                message.append('\n');
+            }
+            message.append(KEYFRAME_PREFIX).append(frame, row, width);
+        }
+        return message.toString();
+    }
+
+    /**
+     * Adds a single tile to a DLT line.
+     * @param message - the DLT line being built.
+     * @param y - y map position
+     * @param x - x map position
+     * @param tile - the new character at that position.
+     */
+    static void appendTile(StringBuilder message, int y, int x, char tile) {
+        message.append(' ').append(y).append(',').append(x).append(',').append(tile);
+    }
+
+    /**
+     * Applies a DLT line to a map held by a client.
+     * @param delta - the DLT line.
+     * @param map - the map to update in place.
+     */
+    static void apply(String delta, char[][] map) {
+        String[] tiles = delta.substring(PREFIX.length()).trim().split(" ");
+        for (String tile : tiles) {
+            if (tile.isEmpty()) {
+                continue;
+            }
+            int firstComma = tile.indexOf(',');
+            int secondComma = tile.indexOf(',', firstComma + 1);
+            int y = Integer.parseInt(tile.substring(0, firstComma));
+            int x = Integer.parseInt(tile.substring(firstComma + 1, secondComma));
+            if (y >= 0 && y < map.length && x >= 0 && x < map[y].length) {
+                map[y][x] = tile.charAt(secondComma + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MapRegistry parses each map file once for the whole server process. Every room playing a map
+ * starts from the same parsed base map, so opening another room on it, or reopening one, costs
+ * nothing more than an empty overlay for the room's own changes, see OverlayTileStore.
+ *
+ * Base maps are never changed. They are keyed by the file's path and checked against its last
+ * modified time, so a map edited on disk is parsed again the next time a room opens on it. A map
+ * which fails to parse is not kept, so the next room to ask for it tries again.
+ *
+ * Chunk files are not kept here; each room opens its own, which only reads the header.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class MapRegistry {
+
+    private static final ConcurrentHashMap<String, Entry> MAPS = new ConcurrentHashMap<>();
+    //Held while parsing a file, so that each file is only parsed once at a time.
+    private static final ConcurrentHashMap<String, ReentrantLock> PARSING = new ConcurrentHashMap<>();
+
+    private MapRegistry() {
+    }
+
+    /**
+     * A parsed map and the modified time of the file it came from.
+     */
+    private static final class Entry {
+        final long modified;
+        final Map base;
+
+        Entry(long modified, Map base) {
+            this.modified = modified;
+            this.base = base;
+        }
+    }
+
+    /**
+     * @param mapFile - a text or compiled map.
+     * @return - the map parsed from it, parsing it only if it is new or has changed since. It
+     * must not be changed; start a map from it with Map.copyFrom.
+     * @throws IOException - if the map cannot be read or is wrongly formatted.
+     */
+    static Map get(File mapFile) throws IOException {
+        if (!mapFile.isFile()) {
+            mapFile = new File("maps", "example_map.txt");
+        }
+        String key;
+        try {
+            key = mapFile.getCanonicalPath();
+        } catch (IOException e) {
+            key = mapFile.getAbsolutePath();
+        }
+        long modified = Math.max(mapFile.lastModified(), DodMap.compiledFile(mapFile).lastModified());
+        Entry entry = MAPS.get(key);
+        if (entry != null && entry.modified == modified) {
+            return entry.base;
+        }
+        ReentrantLock lock = PARSING.computeIfAbsent(key, path -> new ReentrantLock());
+        lock.lock();
+        try {
+            //Somebody else may have parsed it while this thread waited.
+            entry = MAPS.get(key);
+            if (entry != null && entry.modified == modified) {
+                return entry.base;
+            }
+            Map base = new Map() { };
+            base.parseMap(mapFile);
+            MAPS.put(key, new Entry(modified, base));
+            return base;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,691 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking server for the Dungeon of Doom game. Instead of starting a thread for every
+ * client, accepted connections are shared out between a small number of event loops (one per
+ * core by default), each of which services all of its connections through a single Selector.
+ * The text protocol, including the t/f handshake, is exactly the one spoken by Server so the
+ * existing clients work unchanged, and world views are fed by their room's WorldBroadcaster in the
+ * same way.
+ * The event loops never call into the game themselves; commands go to a shared GameLoop and the
+ * replies are posted back to the connection's event loop.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public class NioServer implements Runnable {
+
+    private final int portNum;
+    private final RoomManager rooms;
+    private final Communication serverComm;
+    private final GameLoop gameLoop = new GameLoop();
+    private final EventLoop[] loops;
+    //Opens rooms, which may mean reading a map, so that no event loop ever waits on a file.
+    private final ExecutorService roomOpener = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "RoomOpener");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int nextLoop = 0;
+
+    /**
+     * Constructor. Uses one event loop for every available processor.
+     * @param portNum - the port to listen on.
+     * @param rooms - the games players can join.
+     * @param comm - where to report the communication with clients.
+     */
+    NioServer(int portNum, RoomManager rooms, Communication comm) {
+        this(portNum, rooms, comm, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor.
+     * @param portNum - the port to listen on.
+     * @param rooms - the games players can join.
+     * @param comm - where to report the communication with clients.
+     * @param loopCount - the number of event loops to share the connections between.
+     */
+    NioServer(int portNum, RoomManager rooms, Communication comm, int loopCount) {
+        this.portNum = portNum;
+        this.rooms = rooms;
+        this.serverComm = comm;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+    }
+
+    /**
+     * Starts the event loops and then keeps accepting connections, handing each one to the
+     * next event loop in turn.
+     */
+    public void run() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(portNum));
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop();
+                new Thread(loops[i], "NioServer-" + i).start();
+            }
+            gameLoop.start();
+            serverComm.addString("Listening");
+
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+                serverComm.addString("Connected to: " + channel.socket().getInetAddress());
+            }
+        } catch (IOException e) {
+            serverComm.addString("Failed to set up connection.");
+        } finally {
+            gameLoop.stop();
+        }
+    }
+
+    /**
+     * A single selector thread. Reads and writes for all of its connections happen here, along
+     * with any work handed to it by other threads such as the broadcaster.
+     */
+    private class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        //World views waiting for a game over check, run together as one task.
+        private final ConcurrentLinkedQueue<Connection> ticked = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean ticksPosted = new AtomicBoolean();
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * Queues a newly accepted channel to be registered by the loop thread.
+         * @param channel - the accepted channel.
+         */
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Runs a task on the loop thread, which is the only thread allowed to touch a connection.
+         * @param task - the work to do.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Queues a game over check for a world view. However many of this loop's connections
+         * are ticked at once, only one task is posted to check them all.
+         * @param conn - the connection to check.
+         */
+        void tick(Connection conn) {
+            ticked.add(conn);
+            if (ticksPosted.compareAndSet(false, true)) {
+                execute(this::runTicks);
+            }
+        }
+
+        private void runTicks() {
+            ticksPosted.set(false);
+            Connection conn;
+            while ((conn = ticked.poll()) != null) {
+                conn.checkGameOver();
+            }
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    serverComm.addString("Event loop stopped: " + e.getMessage());
+                    return;
+                }
+                registerPending();
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        serverComm.addString("Event loop task failed: " + e);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection conn = (Connection) key.attachment();
+                    //A bad connection is dropped on its own; the loop carries on for the rest.
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            conn.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            conn.flush();
+                        }
+                    } catch (RuntimeException e) {
+                        serverComm.addString("Dropped " + conn.address() + ": " + e);
+                        conn.disconnect();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Registers every channel accepted since the last pass with this loop's selector.
+         */
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key));
+                } catch (IOException e) {
+                    System.out.println("User has exited the game");
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of one client connection: its half read line, the replies still waiting to be
+     * written and the GameLogic for the player.
+     */
+    private class Connection implements WorldBroadcaster.Subscriber, GameLoop.Completion {
+
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private GameRoom room;
+        private GameLogic logic;
+
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+        //The bytes of a text line read so far, decoded as UTF-8 once the line is complete.
+        private final byte[] line = new byte[BinaryProtocol.MAX_TEXT_LENGTH];
+        private int lineLength = 0;
+        private final ArrayDeque<ByteBuffer> toWrite = new ArrayDeque<>();
+
+        private boolean handshakeDone = false;
+        private boolean joining = false;
+        private boolean binary = false;
+        private boolean deltas = false;
+        private volatile WorldBroadcaster.Subscription subscription;
+        private boolean isConnected = true;
+        private boolean closeWhenFlushed = false;
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Reads whatever is available and handles every complete line.
+         */
+        void read() {
+            int count;
+            try {
+                count = channel.read(readBuffer);
+            } catch (IOException e) {
+                count = -1;
+            }
+            if (count < 0) {
+                System.out.println("User has exited the game");
+                disconnect();
+                return;
+            }
+            process();
+        }
+
+        /**
+         * Handles every complete line or command in the read buffer. Stops while the room asked
+         * for at the handshake is being opened, leaving the rest for when it is ready.
+         */
+        private void process() {
+            readBuffer.flip();
+            while (readBuffer.hasRemaining() && isConnected && !joining) {
+                if (binary) {
+                    //Leave a partly received command in the buffer until the rest arrives.
+                    int length = BinaryProtocol.commandLength(readBuffer);
+                    if (length == BinaryProtocol.MALFORMED) {
+                        disconnect();
+                        return;
+                    }
+                    if (length < 0) {
+                        break;
+                    }
+                    handleBinaryCommand();
+                    continue;
+                }
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    String input = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+                    lineLength = 0;
+                    handleLine(input);
+                } else if (b != '\r') {
+                    if (lineLength == line.length) {
+                        //No command is this long, so the client is not speaking the protocol.
+                        disconnect();
+                        return;
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+            readBuffer.compact();
+            if (!readBuffer.hasRemaining() && isConnected && !joining) {
+                //A command can never fill the buffer, so the client is not speaking the protocol.
+                disconnect();
+            }
+        }
+
+        /**
+         * Responds to a single line from the client in the same way as Server.run.
+         * @param input - the line received.
+         */
+        private void handleLine(String input) {
+            serverComm.addString(address() + ": " + input);
+
+            if (!handshakeDone) {
+                initialHandshake(input);
+            } else if (input.contains("MAP")) {
+                requestWholeMap();
+            } else {
+                parseCommand(input);
+            }
+        }
+
+        /**
+         * Runs a command on the game loop, its reply is sent once it comes back.
+         * @param command - the GameLogic call to make.
+         */
+        private void submit(GameLoop.Command command) {
+            gameLoop.submit(command, this);
+        }
+
+        /**
+         * Called on the game loop thread with the reply to a command, which is sent from the
+         * event loop. Replies come back in the order the commands were submitted.
+         */
+        @Override
+        public void complete(String output) {
+            loop.execute(() -> {
+                if (isConnected) {
+                    send(output);
+                    serverComm.addString("Server to " + address() + ": " + output);
+                }
+            });
+        }
+
+        /**
+         * Responds to a single binary command, which is wholly in the read buffer.
+         */
+        private void handleBinaryCommand() {
+            byte opcode = readBuffer.get();
+            switch (opcode) {
+                case BinaryProtocol.HELLO:
+                    logCommand("HELLO");
+                    submit(logic::hello);
+                    break;
+                case BinaryProtocol.MOVE:
+                    char direction = (char) (readBuffer.get() & 0xFF);
+                    logCommand("MOVE " + direction);
+                    submit(() -> logic.move("MOVE", direction));
+                    break;
+                case BinaryProtocol.PICKUP:
+                    logCommand("PICKUP");
+                    submit(logic::pickup);
+                    break;
+                case BinaryProtocol.LOOK:
+                    logCommand("LOOK");
+                    submit(logic::look);
+                    break;
+                case BinaryProtocol.QUIT:
+                    logCommand("QUIT");
+                    quit();
+                    break;
+                case BinaryProtocol.MAP:
+                    logCommand("MAP");
+                    requestWholeMap();
+                    return;
+                case BinaryProtocol.TEXT:
+                    handleLine(BinaryProtocol.readText(readBuffer));
+                    break;
+                default:
+                    send("FAIL");
+                    serverComm.addString("Server to " + address() + ": FAIL");
+                    break;
+            }
+        }
+
+        /**
+         * Waits for the client to say whether it is a world view (t) or a player (f), then has
+         * the room it asked for opened away from the event loop, since that may read a map.
+         * Nothing more is read from the client until the room is ready.
+         * @param input - the line received.
+         */
+        private void initialHandshake(String input) {
+            String flags = RoomManager.flags(input);
+            if (!(flags.contains("t") || flags.contains("f"))) {
+                return;
+            }
+            handshakeDone = true;
+            joining = true;
+            key.interestOps(0);
+            roomOpener.execute(() -> {
+                try {
+                    GameRoom joined = rooms.join(input);
+                    loop.execute(() -> joined(joined, flags));
+                } catch (IOException | RuntimeException e) {
+                    serverComm.addString("Could not open a room for " + address() + ": " + e.getMessage());
+                    loop.execute(this::refuseJoin);
+                }
+            });
+        }
+
+        /**
+         * Tells the client its room could not be opened and closes the connection.
+         */
+        private void refuseJoin() {
+            if (!isConnected) {
+                return;
+            }
+            send("FAIL could not open the map");
+            closeWhenFlushed = true;
+            flush();
+        }
+
+        /**
+         * Finishes the handshake on the event loop once the room is open, then handles anything
+         * the client sent meanwhile.
+         * @param joined - the room the client is now in.
+         * @param flags - the flags from the handshake line.
+         */
+        private void joined(GameRoom joined, String flags) {
+            if (!isConnected) {
+                rooms.leave(joined);
+                return;
+            }
+            room = joined;
+            logic = new GameLogic(room);
+            //Queued ahead of any command the client sends, so the player is placed first.
+            GameLogic placed = logic;
+            gameLoop.submit(() -> {
+                placed.placePlayer();
+                return null;
+            }, reply -> { });
+
+            if (flags.indexOf(BinaryProtocol.HANDSHAKE_FLAG) >= 0) {
+                send(BinaryProtocol.ACK);
+                binary = true;
+            }
+            if (flags.indexOf(MapDelta.HANDSHAKE_FLAG) >= 0) {
+                deltas = true;
+            }
+            if (flags.contains("t")) {
+                send(logic.mapWidth() + "\n" + logic.mapHeight());
+                serverComm.addString("Server to " + address() + ": " + logic.mapWidth());
+                serverComm.addString("Server to " + address() + ": " + logic.mapHeight());
+                //The whole map, and every frame after it, comes from the broadcaster.
+                subscription = room.getBroadcaster().subscribe(this);
+            }
+            joining = false;
+            key.interestOps(toWrite.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            process();
+        }
+
+        @Override
+        public GameLogic getLogic() {
+            return logic;
+        }
+
+        @Override
+        public boolean wantsDeltas() {
+            return deltas;
+        }
+
+        @Override
+        public boolean usesBinary() {
+            return binary;
+        }
+
+        /**
+         * Hands a frame encoded by the broadcaster to the loop thread to be written.
+         * @param bytes - the encoded frame, shared with other connections.
+         */
+        @Override
+        public void deliver(byte[] bytes) {
+            loop.execute(() -> {
+                if (isConnected) {
+                    toWrite.add(ByteBuffer.wrap(bytes));
+                    flush();
+                }
+            });
+        }
+
+        /**
+         * Called by the broadcaster every tick. Nothing is posted to the loop thread until
+         * somebody has won, and then the check is batched with the loop's other world views.
+         */
+        @Override
+        public void tick() {
+            GameRoom current = room;
+            if (current != null && current.hasWinner()) {
+                loop.tick(this);
+            }
+        }
+
+        /**
+         * Ends the game for this world view once anybody has won.
+         */
+        private void checkGameOver() {
+            if (!isConnected) {
+                return;
+            }
+            if (room.hasWinner()) {
+                if (!logic.getMyWin()) {
+                    send("LOSS");
+                    serverComm.addString("Server to " + address() + ": LOSS");
+                }
+                closeWhenFlushed = true;
+                flush();
+            }
+        }
+
+        /**
+         * Responds to MAP. A world view gets a keyframe from the broadcaster on its next tick, so
+         * that its deltas stay in step; any other client is sent the map straight away.
+         */
+        private void requestWholeMap() {
+            if (subscription != null) {
+                subscription.requestKeyframe();
+            } else {
+                sendWholeMap();
+            }
+        }
+
+        /**
+         * Send the whole dungeon map data to the client as one write.
+         */
+        private void sendWholeMap() {
+            String keyframe = MapDelta.encodeKeyframe(logic.getPlayerFrame(), logic.mapWidth());
+            send(keyframe);
+            for (String theLine : keyframe.split("\n")) {
+                serverComm.addString("Server to " + address() + ": " + theLine);
+            }
+        }
+
+        /**
+         * Parsing and Evaluating the User Input. Game commands are submitted to the game loop.
+         * @param readUserInput input the user generates
+         */
+        private void parseCommand(String readUserInput) {
+
+            String[] command = readUserInput.trim().split(" ");
+
+            switch (command[0].toUpperCase()) {
+                case "HELLO":
+                    submit(logic::hello);
+                    break;
+                case "MOVE":
+                    if (command.length == 2) {
+                        char direction = command[1].charAt(0);
+                        submit(() -> logic.move(command[0], direction));
+                    } else {
+                        //Still through the game loop, so that it cannot overtake earlier replies.
+                        submit(() -> "FAIL");
+                    }
+                    break;
+                case "PICKUP":
+                    submit(logic::pickup);
+                    break;
+                case "LOOK":
+                    if (command.length == 2) {
+                        int radius = GameLogic.parseRadius(command[1]);
+                        submit(() -> logic.look(radius));
+                    } else {
+                        submit(logic::look);
+                    }
+                    break;
+                case "QUIT":
+                    quit();
+                    break;
+                default:
+                    chatMessage(command);
+                    break;
+            }
+        }
+
+        /**
+         * Takes the player out of the game and closes the connection once every earlier reply
+         * has been sent.
+         */
+        private void quit() {
+            gameLoop.submit(logic::quitGame, reply -> loop.execute(this::close));
+        }
+
+        /**
+         * Print the clients command on the Server.
+         * @param command - the command in its text form.
+         */
+        private void logCommand(String command) {
+            serverComm.addString(address() + ": " + command);
+        }
+
+        /**
+         * Prints the chat message to the server.
+         * @param words - the chat message words
+         */
+        private void chatMessage(String[] words) {
+            StringBuilder chatMes = new StringBuilder();
+            for (int i = 1; i < words.length; i++) {
+                chatMes.append(words[i]).append(' ');
+            }
+            serverComm.addString(address() + ": " + chatMes);
+        }
+
+        /**
+         * Queues a reply for the client, in whichever protocol was agreed at the handshake, and
+         * tries to write it straight away.
+         * @param message - the reply, without a final line ending.
+         */
+        private void send(String message) {
+            if (binary) {
+                toWrite.add(ByteBuffer.wrap(BinaryProtocol.encodeReply(message)));
+            } else {
+                toWrite.add(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)));
+            }
+            flush();
+        }
+
+        /**
+         * Writes as much queued data as the socket will take, and asks the selector to report
+         * when it can take more.
+         */
+        void flush() {
+            if (!isConnected) {
+                return;
+            }
+            try {
+                while (!toWrite.isEmpty()) {
+                    ByteBuffer head = toWrite.peek();
+                    channel.write(head);
+                    if (head.hasRemaining()) {
+                        break;
+                    }
+                    toWrite.poll();
+                }
+            } catch (IOException e) {
+                System.out.println("User has exited the game");
+                disconnect();
+                return;
+            }
+
+            if (!toWrite.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else if (closeWhenFlushed) {
+                close();
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * The client went away without quitting, so take its player off the map.
+         */
+        private void disconnect() {
+            if (!isConnected) {
+                return;
+            }
+            if (logic != null) {
+                GameLogic left = logic;
+                gameLoop.submit(() -> {
+                    left.removePlayer();
+                    return null;
+                }, reply -> { });
+            }
+            close();
+        }
+
+        /**
+         * Closes the channel and forgets about the connection.
+         */
+        private void close() {
+            isConnected = false;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            if (room != null) {
+                rooms.leave(room);
+                room = null;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //Non fatal
+            }
+        }
+
+        private String address() {
+            return String.valueOf(channel.socket().getInetAddress());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * OverlayTileStore lets one game change a map without copying it. The tiles as they were loaded
+ * stay in a base store shared by every game on the map, which is never written to, and each
+ * change is kept in a small sorted overlay which is looked at first. A game's own memory grows
+ * with the tiles it has changed, not with the size of the map.
+ *
+ * A tile changed back to what the base holds is dropped from the overlay again.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class OverlayTileStore extends TileStore {
+
+    private final TileStore base;
+    private final ConcurrentSkipListMap<Integer, Character> changes = new ConcurrentSkipListMap<>();
+
+    /**
+     * Constructor.
+     * @param base - the tiles as loaded, which must not change while this store is in use.
+     */
+    OverlayTileStore(TileStore base) {
+        this.base = base;
+    }
+
+    @Override
+    boolean isLazy() {
+        return base.isLazy();
+    }
+
+    @Override
+    int size() {
+        return base.size();
+    }
+
+    @Override
+    char get(int index) {
+        if (!changes.isEmpty()) {
+            Character tile = changes.get(index);
+            if (tile != null) {
+                return tile;
+            }
+        }
+        return base.get(index);
+    }
+
+    @Override
+    void set(int index, char tile) {
+        if (base.get(index) == tile) {
+            changes.remove(index);
+        } else {
+            changes.put(index, tile);
+        }
+    }
+
+    /**
+     * Decodes the run from the base, then writes any changed tiles in it over the top.
+     */
+    @Override
+    void decode(int from, char[] dest, int offset, int length) {
+        base.decode(from, dest, offset, length);
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (java.util.Map.Entry<Integer, Character> change : changes.subMap(from, from + length).entrySet()) {
+            dest[offset + change.getKey() - from] = change.getValue();
+        }
+    }
+}
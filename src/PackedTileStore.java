@@ -0,0 +1,177 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * PackedTileStore keeps each tile in four bits, sixteen to a long. A map uses only a handful of
+ * different tiles, so each is given a code the first time it is seen, up to sixteen in all.
+ *
+ * Tiles next to each other share a long, so a change is a compare and set on the whole long;
+ * two players picking up gold side by side can never undo each other's change.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class PackedTileStore extends GrowableTileStore {
+
+    static final int BITS = 4;
+    static final int PER_WORD = Long.SIZE / BITS;
+    static final int MAX_KINDS = 1 << BITS;
+
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private long[] words = new long[16];
+    private int size = 0;
+
+    //Tile for each code, and code + 1 for each tile so that zero means not seen yet.
+    private final char[] alphabet = new char[MAX_KINDS];
+    private final byte[] codes = new byte[128];
+    private int kinds = 0;
+
+    /**
+     * Constructor. Makes an empty store to add rows to.
+     */
+    PackedTileStore() {
+    }
+
+    /**
+     * Constructor. Makes a store from tiles already packed, as written out by words, which it
+     * takes over.
+     * @param alphabet - the tile for each code, as given by alphabet.
+     * @param words - the packed tiles.
+     * @param size - the number of tiles.
+     */
+    PackedTileStore(byte[] alphabet, long[] words, int size) {
+        this.words = words;
+        this.size = size;
+        while (kinds < MAX_KINDS && alphabet[kinds] != 0) {
+            char tile = (char) (alphabet[kinds] & 0xFF);
+            if (tile >= codes.length) {
+                throw new IllegalArgumentException("tile is not ASCII: " + tile);
+            }
+            this.alphabet[kinds] = tile;
+            codes[tile] = (byte) ++kinds;
+        }
+    }
+
+    /**
+     * @return - the tile for each code, zero for codes not yet given out.
+     */
+    synchronized byte[] alphabet() {
+        byte[] tiles = new byte[MAX_KINDS];
+        for (int i = 0; i < kinds; i++) {
+            tiles[i] = (byte) alphabet[i];
+        }
+        return tiles;
+    }
+
+    /**
+     * @return - the packed tiles, sixteen to a long with the first tile in the lowest bits.
+     */
+    long[] words() {
+        return Arrays.copyOf(words, (size + PER_WORD - 1) / PER_WORD);
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    char get(int index) {
+        long word = words[index / PER_WORD];
+        return alphabet[(int) (word >>> ((index % PER_WORD) * BITS)) & (MAX_KINDS - 1)];
+    }
+
+    @Override
+    void set(int index, char tile) {
+        long code = code(tile);
+        int shift = (index % PER_WORD) * BITS;
+        long mask = (long) (MAX_KINDS - 1) << shift;
+        int w = index / PER_WORD;
+        long old;
+        do {
+            old = (long) WORDS.getVolatile(words, w);
+        } while (!WORDS.compareAndSet(words, w, old, (old & ~mask) | (code << shift)));
+    }
+
+    @Override
+    void appendRow(String row) {
+        reserve(size + row.length());
+        for (int i = 0; i < row.length(); i++) {
+            int index = size++;
+            words[index / PER_WORD] |= (long) code(row.charAt(i)) << ((index % PER_WORD) * BITS);
+        }
+    }
+
+    @Override
+    void appendRow(ByteBuffer bytes, int from, int length) {
+        reserve(size + length);
+        for (int i = 0; i < length; i++) {
+            int index = size++;
+            words[index / PER_WORD] |= (long) code((char) (bytes.get(from + i) & 0xFF)) << ((index % PER_WORD) * BITS);
+        }
+    }
+
+    @Override
+    void reserve(int tiles) {
+        int needed = (tiles + PER_WORD - 1) / PER_WORD;
+        if (needed > words.length) {
+            words = Arrays.copyOf(words, Math.max(needed, words.length + (words.length >> 1)));
+        }
+    }
+
+    @Override
+    void trim() {
+        int needed = (size + PER_WORD - 1) / PER_WORD;
+        if (words.length != needed) {
+            words = Arrays.copyOf(words, needed);
+        }
+    }
+
+    /**
+     * Decodes a whole long at a time rather than shifting for every tile.
+     */
+    @Override
+    void decode(int from, char[] dest, int offset, int length) {
+        int index = from;
+        int end = from + length;
+        while (index < end) {
+            long word = words[index / PER_WORD] >>> ((index % PER_WORD) * BITS);
+            int inWord = Math.min(PER_WORD - index % PER_WORD, end - index);
+            for (int i = 0; i < inWord; i++) {
+                dest[offset++] = alphabet[(int) word & (MAX_KINDS - 1)];
+                word >>>= BITS;
+            }
+            index += inWord;
+        }
+    }
+
+    /**
+     * @param tile - an ASCII tile.
+     * @return - its code, given a new one if it has not been seen before.
+     * @throws IllegalArgumentException - if the tile is not ASCII or there are no codes left.
+     */
+    private int code(char tile) {
+        if (tile < codes.length && codes[tile] != 0) {
+            return codes[tile] - 1;
+        }
+        return newCode(tile);
+    }
+
+    private synchronized int newCode(char tile) {
+        if (tile >= codes.length) {
+            throw new IllegalArgumentException("tile is not ASCII: " + tile);
+        }
+        if (codes[tile] == 0) {
+            if (kinds == MAX_KINDS) {
+                throw new IllegalArgumentException("more than " + MAX_KINDS + " kinds of tile");
+            }
+            alphabet[kinds] = tile;
+            codes[tile] = (byte) ++kinds;
+        }
+        return codes[tile] - 1;
+    }
+}
@@ -30,6 +30,8 @@ public class PlayerGUI extends JFrame {
     private Socket socket;
     private String socketAddress;
     private int portNumber;
+    //The compact binary protocol is only used when asked for, see main.
+    private boolean useBinary = false;
     private Client client;
     private Communication communication = new Communication();
 
@@ -108,9 +110,10 @@ public class PlayerGUI extends JFrame {
      * this method is invoked from the
      * event dispatch thread.
      */
-    private static void createAndShowGUI(String port, String IP) {
+    private static void createAndShowGUI(String port, String IP, boolean useBinary) {
         //Create and set up the window.
         PlayerGUI gui = new PlayerGUI("Dungeon of Doom", IP, Integer.parseInt(port));
+        gui.useBinary = useBinary;
         gui.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
         try {
@@ -498,8 +501,8 @@ public class PlayerGUI extends JFrame {
         communicate( "Connected to: " + socket.getInetAddress() );
 
         client = new Client(socket);
-        client.initialHandshake(false);
-        new Thread(new ClientListener(socket, communication)).start();
+        client.initialHandshake(false, useBinary);
+        new Thread(new ClientListener(socket, communication, client)).start();
     }
 
     /**
@@ -700,7 +703,7 @@ public class PlayerGUI extends JFrame {
 
     /**
      * Thread safe creation of GUI.
-     * @param args - Port number and IP address
+     * @param args - Port number, IP address and optionally "binary" to ask for the binary protocol
      */
     public static void main(final String[] args) {
 
@@ -709,7 +712,7 @@ public class PlayerGUI extends JFrame {
             @Override
             public void run() {
 
-                createAndShowGUI(args[0], args[1]);
+                createAndShowGUI(args[0], args[1], args.length > 2 && args[2].equals("binary"));
             }
         });
     }
@@ -1,18 +1,38 @@
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
 
 /**
  * PlayerMap class. Extends the abstract Map class providing the additional framework for creating
  * a map which ignores everything except for empty and wall tiles, so that it can only be used for player
  * collision.
  *
+ * Only the tiles players stand on are kept, in a concurrent map from tile to player id, and walls
+ * are read from the map itself, so a game's player map grows with its players rather than with
+ * the map. A player moves by claiming the tile it is moving to, only if nobody holds it, and then
+ * releasing the one it left, so two players can never end up on the same tile. A claim or
+ * release is a ConcurrentHashMap compute, which briefly locks the one bin holding the tile, so
+ * no lock is held across a whole move and moves on different tiles rarely contend.
+ *
+ * Players are also kept in a TileIndex, so the players inside a look window or the whole map are
+ * found from the few cells it covers rather than by checking tile after tile. The index is
+ * changed within the same atomic step as the tile's entry, so it always agrees with it.
+ *
  * @author Callum Coles
  * @version 1.1
  * @release 04/06/2016
  */
 public class PlayerMap extends Map {
 
-    protected char[][] playerMap;
+    static final int WALL = -1;
+    static final int EMPTY = 0;
+
+    //Tile index to the id of the player standing there.
+    protected final ConcurrentHashMap<Integer, Integer> occupants = new ConcurrentHashMap<>();
+    //Where the players are, for finding those in an area.
+    protected TileIndex players;
 
     /**
      * Constructor. Calls the super class constructor - Map.
@@ -21,90 +41,107 @@ public class PlayerMap extends Map {
         super();
     }
 
-    /**
-     * Sets up the map ignoring everything but walls and empty spaces.
-     */
-    private void setupPlayerMap(){
-        for (int i = 0; i < playerMap.length; i++) {
-            for (int j = 0; j < playerMap[0].length; j++) {
-                if(map[i][j] != '#'){
-                    playerMap[i][j] = '.';
-                } else {
-                    playerMap[i][j] = '#';
-                }
-            }
-        }
-    }
-
     /**
      * Reads the map.
      * @param mapFile A File pointed to a correctly formatted map file
+     * @throws IOException if the map cannot be read or is wrongly formatted
      */
     @Override
-    public void readMap(File mapFile){
+    public void readMap(File mapFile) throws IOException {
         super.readMap(mapFile);
-        printMap();
-        playerMap = new char[map.length][map[0].length];
-        setupPlayerMap();
-        printMap();
+        players = new TileIndex('P', getMapWidth(), getMapHeight());
     }
 
     /**
      * The method returns the Tile at a given location. The tile is not removed.
+     * Use claimTile rather than checking a tile is free before moving on to it.
      * @param y the vertical position of the tile to replace
      * @param x the horizontal position of the tile to replace
-     * @return The old character which was replaced will be returned.
+     * @return # for a wall, P if a player is there and . otherwise.
      */
     protected char lookAtPlayerTile(int y, int x) {
-        if (y < 0 || x < 0 || y >= map.length || x >= map[0].length)
+        if (!onMap(y, x))
             return '#';
-        char output = playerMap[y][x];
+        return toTile(occupant(index(y, x)));
+    }
+
+    /**
+     * @param i the position of an on map tile
+     * @return WALL, EMPTY or the id of the player on it.
+     */
+    private int occupant(int i) {
+        if (tiles.get(i) == '#')
+            return WALL;
+        return occupants.getOrDefault(i, EMPTY);
+    }
 
-        return output;
+    /**
+     * Claims an empty tile for a player, failing if it is a wall or somebody is already there.
+     * @param y the vertical position of the tile
+     * @param x the horizontal position of the tile
+     * @param playerId the id of the player, greater than zero
+     * @return whether the player now holds the tile.
+     */
+    protected boolean claimTile(int y, int x, int playerId) {
+        if (!onMap(y, x))
+            return false;
+        int i = index(y, x);
+        if (tiles.get(i) == '#')
+            return false;
+        //The index is changed inside compute, so no release of the tile can land in between.
+        boolean[] claimed = {false};
+        occupants.compute(i, (tile, holder) -> {
+            if (holder != null)
+                return holder;
+            players.add(tile);
+            claimed[0] = true;
+            return playerId;
+        });
+        return claimed[0];
     }
 
     /**
-     * The method replaces a char at a given position of the map with a new char
-     * @param y the vertical position of the tile to replace
-     * @param x the horizontal position of the tile to replace
-     * @param tile the char character of the tile to replace
-     * @return The old character which was replaced will be returned.
+     * Gives up a tile the player holds.
+     * @param y the vertical position of the tile
+     * @param x the horizontal position of the tile
+     * @param playerId the id of the player
+     * @return whether the player held the tile.
      */
-    protected char replacePlayerTile(int y, int x, char tile) {
-        char output = playerMap[y][x];
-        playerMap[y][x] = tile;
-        incChangesMade();
-        return output;
+    protected boolean releaseTile(int y, int x, int playerId) {
+        if (!onMap(y, x))
+            return false;
+        int i = index(y, x);
+        boolean[] released = {false};
+        occupants.computeIfPresent(i, (tile, holder) -> {
+            if (holder != playerId)
+                return holder;
+            players.remove(tile);
+            released[0] = true;
+            return null;
+        });
+        return released[0];
     }
 
     /**
-     * This method is used to retrieve a map view around a certain location.
-     * The method should be used to get the look() around the player location.
-     * @param y Y coordinate of the location
-     * @param x X coordinate of the location
-     * @param radius The radius defining the area which will be returned.
-     * Without the usage of a lamp the standard value is 5 units.
-     * @return
+     * Passes the position of every player inside a rectangle to an action.
+     * @param top the y position of the top row
+     * @param left the x position of the left column
+     * @param bottom the y position of the bottom row, inclusive
+     * @param right the x position of the right column, inclusive
+     * @param action given the index of each player's tile, see index
      */
-    protected char[][] lookPlayerWindow(int y, int x, int radius) {
-        char[][] reply = new char[radius][radius];
-        for (int i = 0; i < radius; i++) {
-            for (int j = 0; j < radius; j++) {
-                int posX = x + j - radius/2;
-                int posY = y + i - radius/2;
-                if (posX >= 0 && posX < getMapWidth() &&
-                        posY >= 0 && posY < getMapHeight())
-                    reply[j][i] = playerMap[posY][posX];
-                else
-                    reply[j][i] = '#';
-            }
-        }
-        reply[0][0] = 'X';
-        reply[radius-1][0] = 'X';
-        reply[0][radius-1] = 'X';
-        reply[radius-1][radius-1] = 'X';
+    protected void forEachPlayerIn(int top, int left, int bottom, int right, IntConsumer action) {
+        players.forEachIn(top, left, bottom, right, action);
+    }
 
-        return reply;
+    /**
+     * @param occupant WALL, EMPTY or the id of a player
+     * @return the character shown for it.
+     */
+    private static char toTile(int occupant) {
+        if (occupant == WALL)
+            return '#';
+        return occupant == EMPTY ? '.' : 'P';
     }
 
 }
@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * RegionVersions counts the changes made in each region of a map, so that anything built from
+ * part of the map, such as a LOOK reply, can tell whether it is still current by comparing a
+ * stamp of the regions it covers instead of looking at the tiles again. Something keeping a copy
+ * of the whole map, such as a world view, keeps the counters it has seen and reads again only
+ * the regions whose counters have moved, see forEachChanged. A total over every region, kept in
+ * a LongAdder so that changes far apart never contend, says whether anything has changed at all.
+ *
+ * Regions share a bounded number of counters, striped across the map, so a
+ * change in one region may also make a stamp elsewhere look out of date; it can never make an
+ * out of date stamp look current. A counter must be bumped once the change it records can be
+ * seen everywhere the map is read from, see GameLogic.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class RegionVersions {
+
+    //Width and height of a region, in tiles.
+    static final int REGION_SIZE = 8;
+    static final int MAX_COUNTERS = 1 << 16;
+
+    private final AtomicIntegerArray counters;
+    private final LongAdder total = new LongAdder();
+    private final int regions;
+    private final int mask;
+    private final int regionsWide;
+    private final int width;
+    private final int height;
+
+    /**
+     * Constructor.
+     * @param width - the width of the map.
+     * @param height - the height of the map.
+     */
+    RegionVersions(int width, int height) {
+        this.width = width;
+        this.height = height;
+        regionsWide = (width + REGION_SIZE - 1) / REGION_SIZE;
+        regions = regionsWide * ((height + REGION_SIZE - 1) / REGION_SIZE);
+        int count = 1;
+        while (count < regions && count < MAX_COUNTERS) {
+            count <<= 1;
+        }
+        counters = new AtomicIntegerArray(count);
+        mask = count - 1;
+    }
+
+    /**
+     * @param y - y map position, positions off the map use the nearest edge region.
+     * @param x - x map position
+     * @return - the counter for that tile's region.
+     */
+    private int counter(int y, int x) {
+        int regionY = Math.min(Math.max(y, 0), height - 1) / REGION_SIZE;
+        int regionX = Math.min(Math.max(x, 0), width - 1) / REGION_SIZE;
+        return (regionY * regionsWide + regionX) & mask;
+    }
+
+    /**
+     * Records a change to a tile, once it has been made.
+     * @param y - y map position
+     * @param x - x map position
+     */
+    void bump(int y, int x) {
+        counters.incrementAndGet(counter(y, x));
+        total.increment();
+    }
+
+    /**
+     * @return - the number of changes made anywhere on the map.
+     */
+    long total() {
+        return total.sum();
+    }
+
+    /**
+     * @return - the number of regions across the map.
+     */
+    int regionsWide() {
+        return regionsWide;
+    }
+
+    /**
+     * @return - every counter as it is now, to pass to forEachChanged later. Take it before
+     * reading the map.
+     */
+    int[] snapshot() {
+        int[] seen = new int[counters.length()];
+        for (int i = 0; i < seen.length; i++) {
+            seen[i] = counters.get(i);
+        }
+        return seen;
+    }
+
+    /**
+     * Passes every region which may have changed since the counters were seen to an action, and
+     * records the counters as seen. The action should read the region afresh.
+     * @param seen - the counters as last seen, from snapshot, brought up to date.
+     * @param action - given the number of each region, row by row across the map.
+     */
+    void forEachChanged(int[] seen, IntConsumer action) {
+        for (int i = 0; i < seen.length; i++) {
+            int now = counters.get(i);
+            if (now != seen[i]) {
+                seen[i] = now;
+                for (int region = i; region < regions; region += seen.length) {
+                    action.accept(region);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param top - y position of the top row of an area.
+     * @param left - x position of the left column.
+     * @param bottom - y position of the bottom row, inclusive.
+     * @param right - x position of the right column, inclusive.
+     * @return - a stamp which changes whenever anything in the area changes. Take it before
+     * reading the area, so that a change made while reading shows up as a newer stamp.
+     */
+    long stamp(int top, int left, int bottom, int right) {
+        long stamp = 0;
+        for (int y = Math.max(top, 0) / REGION_SIZE; y <= Math.min(bottom, height - 1) / REGION_SIZE; y++) {
+            for (int x = Math.max(left, 0) / REGION_SIZE; x <= Math.min(right, width - 1) / REGION_SIZE; x++) {
+                stamp += counters.get(counter(y * REGION_SIZE, x * REGION_SIZE));
+            }
+        }
+        return stamp;
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * RoomManager hosts any number of independent games in one server. A client picks its room
+ * with the words after the flags of its handshake line:
+ *
+ * f                      joins the default room, played on the server's map.
+ * f lobby2               joins (or opens) the room lobby2 on the server's map.
+ * tbd lobby2 calMaze.txt joins lobby2, opening it on maps/calMaze.txt if it is not open yet.
+ *
+ * A room is opened by the first client to ask for it and closed when its last client leaves,
+ * apart from the default room which stays open for as long as the server runs. All rooms share
+ * a single thread for their world view ticks.
+ *
+ * Opening a room reads its map, which can take a while, so it is done outside the room table
+ * and never on an event loop thread. A map which cannot be read refuses the join.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public class RoomManager {
+
+    static final String DEFAULT_ROOM = "main";
+
+    private final ConcurrentHashMap<String, GameRoom> rooms = new ConcurrentHashMap<>();
+    private final File defaultMap;
+    private final ScheduledExecutorService ticker;
+    private final int coalesceDelay;
+
+    /**
+     * Constructor. Opens the default room straight away, so a bad map is found before anybody
+     * connects.
+     * @param defaultMap - the map used by rooms which do not name one.
+     * @param coalesceDelay - milliseconds each room waits after a change before updating its
+     * world views, so a burst of moves is sent as one frame. 0 sends every change at once.
+     * @throws IOException - if the default map cannot be read or is wrongly formatted.
+     */
+    RoomManager(File defaultMap, int coalesceDelay) throws IOException {
+        this.defaultMap = defaultMap;
+        this.coalesceDelay = coalesceDelay;
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WorldBroadcaster");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rooms.put(DEFAULT_ROOM, new GameRoom(DEFAULT_ROOM, defaultMap, ticker, coalesceDelay));
+    }
+
+    /**
+     * @param handshake - the client's handshake line.
+     * @return - the flags at the start of the line, such as t, f, b and d.
+     */
+    static String flags(String handshake) {
+        String[] words = handshake.trim().split("\\s+");
+        return words[0];
+    }
+
+    /**
+     * Adds a client to the room named in its handshake line, opening the room if need be.
+     * @param handshake - the client's handshake line.
+     * @return - the room joined, which the client must leave when it goes.
+     * @throws IOException - if the room had to be opened and its map cannot be read.
+     */
+    GameRoom join(String handshake) throws IOException {
+        String[] words = handshake.trim().split("\\s+");
+        String name = words.length > 1 ? words[1] : DEFAULT_ROOM;
+        File mapFile = words.length > 2 ? mapFile(words[2]) : defaultMap;
+        while (true) {
+            GameRoom room = rooms.computeIfPresent(name, (key, current) -> {
+                current.players++;
+                return current;
+            });
+            if (room != null) {
+                return room;
+            }
+            GameRoom opened = new GameRoom(name, mapFile, ticker, coalesceDelay);
+            opened.players = 1;
+            if (rooms.putIfAbsent(name, opened) == null) {
+                return opened;
+            }
+            //Another client opened the room first, join that one instead.
+            opened.close();
+        }
+    }
+
+    /**
+     * Takes a client out of its room, closing the room if it was the last one.
+     * @param room - the room returned by join.
+     */
+    void leave(GameRoom room) {
+        rooms.computeIfPresent(room.getName(), (key, current) -> {
+            if (current != room || --current.players > 0 || key.equals(DEFAULT_ROOM)) {
+                return current;
+            }
+            current.close();
+            return null;
+        });
+    }
+
+    /**
+     * Closes every room.
+     */
+    void shutdown() {
+        for (GameRoom room : rooms.values()) {
+            room.close();
+        }
+        rooms.clear();
+        ticker.shutdownNow();
+    }
+
+    /**
+     * Only map files in the maps folder can be asked for, anything else uses the default map.
+     * @param name - the map file named by a client.
+     * @return - the file to read.
+     */
+    private File mapFile(String name) {
+        File file = new File("maps", new File(name).getName());
+        return file.isFile() ? file : defaultMap;
+    }
+}
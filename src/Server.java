@@ -1,12 +1,15 @@
-import javax.swing.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.net.Socket;
 import java.io.File;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 
@@ -20,10 +23,7 @@ import java.io.File;
  * @version 1.1
  * @release 04/06/2016
  */
-public class Server implements Runnable, IGameLogic {
-
-    int timeDelay = 100;
-    private ActionListener time;
+public class Server implements Runnable, IGameLogic, WorldBroadcaster.Subscriber {
 
     private boolean threadStarter;
     private boolean isConnected;
@@ -32,18 +32,40 @@ public class Server implements Runnable, IGameLogic {
     private PrintWriter dataToClient;
     private BufferedReader dataFromClient;
 
+    //Raw output, used for binary replies and for frames encoded by the broadcaster.
+    private OutputStream bytesToClient;
+    //Held while writing, as the broadcaster writes to world views from its own thread.
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    //Only used once the client has asked for the binary protocol.
+    private boolean binary = false;
+    private InputStream binaryFromClient;
+
+    //The game is picked by the client at the handshake.
+    private final RoomManager rooms;
+    private GameRoom room;
+
+    //Only used by world views.
+    private WorldBroadcaster.Subscription subscription;
+    private boolean deltas = false;
+
     private Communication serverComm;
 
-    private static boolean anyWin = false;
+    //Every GameLogic call is run by the game loop, the reply comes back through this slot.
+    private final GameLoop gameLoop;
+    private final GameLoop.Slot completion = new GameLoop.Slot();
 
     /**
-     * Constructor. Keeps track of the socket used for clients
+     * Constructor. Keeps track of the socket used for clients, the rooms it can join and the
+     * game loop which runs its commands. The player is created once the handshake has said
+     * which room it is in.
      */
-    Server(Socket newSocket, File mapFile, Communication comm) {
+    Server(Socket newSocket, RoomManager rooms, Communication comm, GameLoop gameLoop) {
 
         this.serverComm = comm;
+        this.gameLoop = gameLoop;
+        this.rooms = rooms;
 
-        logic = new GameLogic(mapFile);
         this.listenAtSocket = newSocket;
         isConnected = true;
         threadStarter = true;
@@ -63,10 +85,9 @@ public class Server implements Runnable, IGameLogic {
 
         if(threadStarter) {
             try {
-                // Setup input from client
-                dataFromClient = new BufferedReader(new InputStreamReader(listenAtSocket.getInputStream()));
-                //Setup output to client
+                //Setup output to client, input is set up by the handshake once the protocol is known
                 dataToClient = new PrintWriter(listenAtSocket.getOutputStream(), true);
+                bytesToClient = new BufferedOutputStream(listenAtSocket.getOutputStream());
 
                 initialHandshake();
             } catch (IOException e) {
@@ -76,10 +97,35 @@ public class Server implements Runnable, IGameLogic {
             threadStarter = false;
         }
 
-        //while connected keep receiving input data from client
-        //and co ordinating a response as required.
+        try {
+            serve();
+        } catch (RuntimeException e) {
+            isConnected = false;
+            System.out.println("Dropped client: " + e);
+        } finally {
+            //Whichever way the connection ended, the player leaves the map and the room.
+            removePlayer();
+            if(subscription != null) {
+                subscription.cancel();
+            }
+            if(room != null) {
+                rooms.leave(room);
+            }
+        }
+    }
+
+    /**
+     * Keeps receiving input data from the client and co-ordinating a response as required,
+     * while connected.
+     */
+    private void serve() {
         while (isConnected) {
 
+            if(binary) {
+                runBinaryCommand();
+                continue;
+            }
+
             CharSequence map = "MAP";
             try {
                 //Get input from client
@@ -90,14 +136,14 @@ public class Server implements Runnable, IGameLogic {
                 serverComm.addString(listenAtSocket.getInetAddress() + ": " + input);
 
                 if(input.contains(map)){
-                    sendWholeMap();
+                    requestWholeMap();
                 }else {
                     //Get output for the client
                     String output = parseCommand(input);
                     if(isConnected) {
                         if(output != "UM") {
                             // Send response to client
-                            dataToClient.println(output);
+                            sendToClient(output);
                             serverComm.addString("Server to " + listenAtSocket.getInetAddress() + ": " + output);
                         }
                     }else{
@@ -109,7 +155,7 @@ public class Server implements Runnable, IGameLogic {
                 System.out.println("User has exited the game");
             } catch (NullPointerException e2) {
                 isConnected = false;
-                logic.removePlayer();
+                removePlayer();
             }
 
         }
@@ -122,74 +168,254 @@ public class Server implements Runnable, IGameLogic {
      */
     private void initialHandshake() throws IOException {
 
+        //Handshake lines are read without buffering so no binary command can be swallowed.
+        InputStream fromClient = listenAtSocket.getInputStream();
         String worldMap = "";
+        String flags = "";
         CharSequence tru = "t";
         CharSequence fal = "f";
-        while ( !(worldMap.contains(tru) || worldMap.contains(fal)) ) {
-            worldMap = dataFromClient.readLine();
+        while ( !(flags.contains(tru) || flags.contains(fal)) ) {
+            worldMap = BinaryProtocol.readLine(fromClient);
+            if(worldMap == null) {
+                throw new EOFException();
+            }
             System.out.println(worldMap);
 
             //Print the clients message on the Server
             serverComm.addString(listenAtSocket.getInetAddress() + ": " + worldMap);
+            flags = RoomManager.flags(worldMap);
         }
 
-        if(worldMap.contains(tru)) {
-            dataToClient.print(logic.mapWidth() + "\n" + logic.mapHeight() + "\n");
+        //Anything after the flags names the room to play in.
+        try {
+            room = rooms.join(worldMap);
+        } catch (IOException e) {
+            serverComm.addString("Could not open a room for " + listenAtSocket.getInetAddress() + ": " + e.getMessage());
+            dataToClient.println("FAIL could not open the map");
+            throw e;
+        }
+        logic = new GameLogic(room);
+        completion.call(gameLoop, () -> {
+            logic.placePlayer();
+            return null;
+        });
+
+        if(flags.indexOf(BinaryProtocol.HANDSHAKE_FLAG) >= 0) {
+            dataToClient.println(BinaryProtocol.ACK);
+            binaryFromClient = new BufferedInputStream(fromClient);
+            binary = true;
+        } else {
+            dataFromClient = new BufferedReader(new InputStreamReader(fromClient));
+        }
+
+        if(flags.indexOf(MapDelta.HANDSHAKE_FLAG) >= 0) {
+            deltas = true;
+        }
+
+        if(flags.contains(tru)) {
+            sendToClient(logic.mapWidth() + "\n" + logic.mapHeight());
             serverComm.addString("Server to " + listenAtSocket.getInetAddress() + ": " + logic.mapWidth());
             serverComm.addString("Server to " + listenAtSocket.getInetAddress() + ": " + logic.mapHeight());
+            //The whole map, and every frame after it, comes from the broadcaster.
+            subscription = room.getBroadcaster().subscribe(this);
+        }
+    }
+
+    /**
+     * Responds to MAP. A world view gets a keyframe from the broadcaster on its next tick, so
+     * that its deltas stay in step; any other client is sent the map straight away.
+     */
+    private void requestWholeMap() {
+        if(subscription != null) {
+            subscription.requestKeyframe();
+        } else {
             sendWholeMap();
-            time = new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent evt) {
-                    if(!logic.upToDate()) {
-                        sendWholeMap();
-                    }
-                    if (anyWin == true && isConnected){
-                        try {
-                            Thread.sleep(100);
-                        } catch (InterruptedException e) {
-                            //Non fatal
-                        }
-                        if(logic.getMyWin() == false){
-                            dataToClient.println("LOSS");
-                            serverComm.addString("Server to " + listenAtSocket.getInetAddress() + ": LOSS");
-                        }
-                        dataToClient.close();
-                        isConnected = false;
-                    }
-                    if (logic.getMyWin() == true){
-                        anyWin = true;
-                    }
-                }
-            };
-            new Timer(timeDelay, time).start();
         }
     }
 
     /**
-     * Send the whole dungeon map data to the server.
+     * Send the whole dungeon map data to the client.
      */
     private void sendWholeMap() {
-        for(int i = 0; i<logic.mapHeight(); i++){
-            String theLine = "";
-            for(int j = 0; j<logic.mapWidth(); j++){
-                System.out.print(logic.getMapChars()[i][j]);
-                if (logic.lookAtPlayerTile(i,j) == 'P'){
-                    if(j == logic.getPlayerXPos() && i == logic.getPlayerYPos()) {
-                        theLine += 'P';
-                    } else {
-                        theLine += 'p';
-                    }
-                } else {
-                    theLine += logic.getMapChars()[i][j];
+        String keyframe = MapDelta.encodeKeyframe(logic.getPlayerFrame(), logic.mapWidth());
+        sendToClient(keyframe);
+        for(String theLine : keyframe.split("\n")) {
+            serverComm.addString("Server to " + listenAtSocket.getInetAddress() + ": " + theLine);
+        }
+    }
+
+    /**
+     * Sends a reply to the client in whichever protocol was agreed at the handshake.
+     * @param message - the reply, which may hold several lines.
+     */
+    private void sendToClient(String message) {
+        writeLock.lock();
+        try {
+            if(binary) {
+                bytesToClient.write(BinaryProtocol.encodeReply(message));
+                bytesToClient.flush();
+            } else {
+                dataToClient.println(message);
+            }
+        } catch (IOException e) {
+            isConnected = false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return - the GameLogic of this client's player.
+     */
+    @Override
+    public GameLogic getLogic() {
+        return logic;
+    }
+
+    /**
+     * @return - whether this world view asked for delta updates.
+     */
+    @Override
+    public boolean wantsDeltas() {
+        return deltas;
+    }
+
+    /**
+     * @return - whether this client uses the binary protocol.
+     */
+    @Override
+    public boolean usesBinary() {
+        return binary;
+    }
+
+    /**
+     * Writes a frame encoded by the broadcaster.
+     * @param bytes - the encoded frame.
+     */
+    @Override
+    public void deliver(byte[] bytes) {
+        if(!isConnected) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            bytesToClient.write(bytes);
+            bytesToClient.flush();
+        } catch (IOException e) {
+            isConnected = false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Called by the broadcaster every tick, ends the game for this world view once anybody has won.
+     */
+    @Override
+    public void tick() {
+        if (room.hasWinner() && isConnected){
+            if(logic.getMyWin() == false){
+                sendToClient("LOSS");
+                serverComm.addString("Server to " + listenAtSocket.getInetAddress() + ": LOSS");
+            }
+            dataToClient.close();
+            isConnected = false;
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Reads one binary command from the client and co-ordinates the response.
+     */
+    private void runBinaryCommand() {
+        try {
+            int opcode = binaryFromClient.read();
+            if(opcode < 0) {
+                throw new EOFException();
+            }
+
+            String output = evaluateBinaryCommand(opcode);
+
+            if(isConnected) {
+                if(!output.equals("UM")) {
+                    sendToClient(output);
+                    serverComm.addString("Server to " + listenAtSocket.getInetAddress() + ": " + output);
                 }
+            } else {
+                dataToClient.close();
             }
-            System.out.println();
-            dataToClient.println("MAP" + theLine);
-            serverComm.addString("Server to " + listenAtSocket.getInetAddress() + ": MAP" + theLine);
+        } catch (EOFException e) {
+            isConnected = false;
+            removePlayer();
+        } catch (IOException e) {
+            isConnected = false;
+            System.out.println("User has exited the game");
+        }
+    }
+
+    /**
+     * Evaluates a binary command. TEXT commands are
+     * handled exactly as a line of the text protocol would be.
+     * @param opcode - the command's opcode byte.
+     * @return answer of GameLogic
+     * @throws IOException - if the command's arguments cannot be read.
+     */
+    private String evaluateBinaryCommand(int opcode) throws IOException {
+        String answer;
+        switch (opcode) {
+            case BinaryProtocol.HELLO:
+                logCommand("HELLO");
+                answer = hello();
+                break;
+            case BinaryProtocol.MOVE:
+                int direction = binaryFromClient.read();
+                if(direction < 0) {
+                    throw new EOFException();
+                }
+                logCommand("MOVE " + (char) direction);
+                answer = move("MOVE", (char) direction);
+                break;
+            case BinaryProtocol.PICKUP:
+                logCommand("PICKUP");
+                answer = pickup();
+                break;
+            case BinaryProtocol.LOOK:
+                logCommand("LOOK");
+                answer = look();
+                break;
+            case BinaryProtocol.QUIT:
+                logCommand("QUIT");
+                answer = quitGame();
+                isConnected = false;
+                break;
+            case BinaryProtocol.MAP:
+                logCommand("MAP");
+                requestWholeMap();
+                answer = "UM";
+                break;
+            case BinaryProtocol.TEXT:
+                String input = BinaryProtocol.readText(binaryFromClient);
+                logCommand(input);
+                if(input.contains("MAP")) {
+                    requestWholeMap();
+                    answer = "UM";
+                } else {
+                    answer = parseCommand(input);
+                }
+                break;
+            default:
+                answer = "FAIL";
+                break;
         }
-        logic.setUpdated();
+        return answer;
+    }
 
+    /**
+     * Print the clients command on the Server.
+     * @param command - the command in its text form.
+     */
+    private void logCommand(String command) {
+        serverComm.addString(listenAtSocket.getInetAddress() + ": " + command);
     }
 
     /**
@@ -207,7 +433,7 @@ public class Server implements Runnable, IGameLogic {
      */
     @Override
     public String hello() {
-        return logic.hello();
+        return completion.call(gameLoop, logic::hello);
     }
 
     /**
@@ -218,7 +444,7 @@ public class Server implements Runnable, IGameLogic {
      */
     @Override
     public String move(String move, char direction) {
-        return logic.move(move, direction);
+        return completion.call(gameLoop, () -> logic.move(move, direction));
     }
 
     /**
@@ -227,7 +453,7 @@ public class Server implements Runnable, IGameLogic {
      */
     @Override
     public String pickup() {
-        return logic.pickup();
+        return completion.call(gameLoop, logic::pickup);
     }
 
     /**
@@ -236,7 +462,16 @@ public class Server implements Runnable, IGameLogic {
      */
     @Override
     public String look() {
-        return logic.look();
+        return completion.call(gameLoop, logic::look);
+    }
+
+    /**
+     * Gets response from the logic class, so that client can be sent a message.
+     * @param radius - the size of the view asked for.
+     * @return the look screen to the user.
+     */
+    public String look(int radius) {
+        return completion.call(gameLoop, () -> logic.look(radius));
     }
 
     /**
@@ -256,18 +491,31 @@ public class Server implements Runnable, IGameLogic {
     public String quitGame() {
         try {
             listenAtSocket.close();
-            return logic.quitGame();
         } catch (IOException e) {
-            return logic.quitGame();
+            //Non fatal, the player still leaves the game.
+        }
+        return completion.call(gameLoop, logic::quitGame);
+    }
+
+    /**
+     * The client went away without quitting, so take its player off the map.
+     */
+    private void removePlayer() {
+        if(logic == null) {
+            return;
         }
+        completion.call(gameLoop, () -> {
+            logic.removePlayer();
+            return null;
+        });
     }
 
     /**
-     * Parsing and Evaluating the User Input.
+     * Parsing and Evaluating the User Input. The game itself is only changed on the game loop.
      * @param readUserInput input the user generates
      * @return answer of GameLogic
      */
-    protected synchronized String parseCommand(String readUserInput) {
+    protected String parseCommand(String readUserInput) {
 
         String[] command;
         try{
@@ -293,7 +541,7 @@ public class Server implements Runnable, IGameLogic {
                 answer = pickup();
                 break;
             case "LOOK":
-                answer = look();
+                answer = command.length == 2 ? look(GameLogic.parseRadius(command[1])) : look();
                 break;
             case "QUIT":
                 answer = quitGame();
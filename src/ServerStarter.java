@@ -3,10 +3,13 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.swing.JOptionPane;
 import javax.swing.Timer;
 
@@ -25,6 +28,7 @@ import javax.swing.Timer;
 public class ServerStarter extends JFrame {
 
     private File mapName;
+    private RoomManager rooms;
 
     //Code for the GUI
     //Used to get the size of the users screen.
@@ -43,10 +47,17 @@ public class ServerStarter extends JFrame {
     private JButton botButton;
     private JButton setMap;
     private JButton setPort;
+    private JButton setMode;
+    private JButton setDelay;
     private JButton startButton;
 
     private String mapStringName = "default.txt";
     private int portNum = 44444;
+    private String serverMode = "THREAD";
+    //Milliseconds world views wait after a change, gathering a burst of moves into one frame.
+    private int coalesceDelay = 0;
+    //Whether a server started from this window is still running, only used on the Swing thread.
+    private boolean serverRunning = false;
 
     private Communication communication = new Communication();
     private int timeDelay = 50;
@@ -131,6 +142,8 @@ public class ServerStarter extends JFrame {
         botButton = new JButton("LAUNCH BOT");
         setMap = new JButton("SET MAP");
         setPort = new JButton("SET PORT");
+        setMode = new JButton("SET MODE");
+        setDelay = new JButton("SET DELAY");
         startButton = new JButton("START");
 
         GridBagConstraints c = new GridBagConstraints();
@@ -139,7 +152,7 @@ public class ServerStarter extends JFrame {
 
         c.gridx = 0;
         c.gridy = 0;
-        c.gridwidth = 5;
+        c.gridwidth = 6;
         c.gridheight = 1;
         c.weighty = 0.0;
         c.weightx = 0.1;
@@ -149,7 +162,7 @@ public class ServerStarter extends JFrame {
 
         c.gridx = 0;
         c.gridy = 1;
-        c.gridwidth = 5;
+        c.gridwidth = 6;
         c.gridheight = 1;
         c.weighty = 1.0;
         c.weightx = 0.1;
@@ -170,6 +183,12 @@ public class ServerStarter extends JFrame {
         commuPanel.add(setPort, c);
 
         c.gridx = 3;
+        commuPanel.add(setMode, c);
+
+        c.gridx = 4;
+        commuPanel.add(setDelay, c);
+
+        c.gridx = 5;
         commuPanel.add(startButton, c);
 
         FlowLayout layout = new FlowLayout(FlowLayout.CENTER, 10, 20);
@@ -197,24 +216,67 @@ public class ServerStarter extends JFrame {
             }
         });
 
+        //Process the event for the setMode button to choose how connections are handled.
+        setMode.addActionListener(new ActionListener(){
+            public void actionPerformed(ActionEvent e){
+                Object mode = JOptionPane.showInputDialog(null, "Select a server mode: ", "SET MODE",
+                        JOptionPane.QUESTION_MESSAGE, null, new String[]{"THREAD", "VIRTUAL", "NIO"}, serverMode);
+                if(mode != null){
+                    serverMode = (String) mode;
+                }
+            }
+        });
+
+        //Process the event for the setDelay button to choose how long world views gather changes for.
+        setDelay.addActionListener(new ActionListener(){
+            public void actionPerformed(ActionEvent e){
+                String delay = JOptionPane.showInputDialog("Enter a world view delay in milliseconds: ", coalesceDelay);
+                if(delay != null){
+                    try {
+                        coalesceDelay = Math.max(0, Integer.parseInt(delay.trim()));
+                    } catch (NumberFormatException ex) {
+                        communication.addString("Not a number of milliseconds: " + delay);
+                    }
+                }
+            }
+        });
+
         new Timer(timeDelay, time).start();
 
         //Process the event for the botButton to start the server.
         startButton.addActionListener(new ActionListener(){
             public void actionPerformed(ActionEvent e){
-                createMap();
-                startServer();
+                //The running server still plays in the current rooms, so they must not be replaced.
+                if(serverRunning) {
+                    communicate("The server is already running.");
+                    return;
+                }
+                if(createMap()) {
+                    startServer();
+                }
             }
         });
 
     }
 
     /**
-     * Turns the string into a file and then uses this file to try read the map.
+     * Turns the string into a file and then uses this file to try read the map, which is played
+     * in the default room and by any room that does not name a map of its own.
+     * @return - whether the map could be read.
      */
-    private void createMap() {
+    private boolean createMap() {
         mapName = new File("maps", mapStringName);
-        GameLogic.readMap(mapName);
+        if(rooms != null){
+            rooms.shutdown();
+            rooms = null;
+        }
+        try {
+            rooms = new RoomManager(mapName, coalesceDelay);
+            return true;
+        } catch (IOException e) {
+            communication.addString("Could not read the map: " + e.getMessage());
+            return false;
+        }
     }
 
     /**
@@ -222,16 +284,36 @@ public class ServerStarter extends JFrame {
      */
     private void startServer() {
 
+        serverRunning = true;
         SwingWorker<Boolean, String> startServer = new SwingWorker<Boolean, String>() {
             Socket sock;
             @Override
             protected Boolean doInBackground() throws Exception {
+                if(serverMode.equals("NIO")){
+                    //Runs until the server socket fails, the event loops report their own connections.
+                    new NioServer(portNum, rooms, communication).run();
+                    return false;
+                }
                 try {
+                    ExecutorService executor = null;
+                    if(serverMode.equals("VIRTUAL")){
+                        executor = virtualThreadExecutor();
+                        if(executor == null){
+                            publish("Virtual threads are not available, using a thread per connection.");
+                        }
+                    }
                     ServerSocket SerSocket = new ServerSocket(portNum);
+                    GameLoop gameLoop = new GameLoop();
+                    gameLoop.start();
                     publish("Listening");
                     while (true) {
                         Socket sock = SerSocket.accept();
-                        new Thread(new Server(sock, mapName, communication)).start();
+                        Server server = new Server(sock, rooms, communication, gameLoop);
+                        if(executor != null){
+                            executor.execute(server);
+                        } else {
+                            new Thread(server).start();
+                        }
                         publish("Connected to: " + sock.getInetAddress());
                     }
                 }catch (Exception e){
@@ -239,6 +321,7 @@ public class ServerStarter extends JFrame {
                 }
             }
             protected void done(){
+                serverRunning = false;
                 boolean connectResult;
                 try{
                     connectResult = get();
@@ -262,6 +345,19 @@ public class ServerStarter extends JFrame {
         startServer.execute();
     }
 
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor, which only exists on Java 21 and later,
+     * so that the server still builds and runs on older versions.
+     * @return - an executor starting a virtual thread per task, or null if there isn't one.
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
     /**
      * Check communication object, return whether or not text has been received.
      * @return - whether some text has been processed.
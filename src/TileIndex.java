@@ -0,0 +1,228 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * TileIndex keeps track of where every tile of one kind is, such as every gold tile or every
+ * player, so that nothing has to scan the map to find them. The map is split into square cells
+ * and each cell which holds any of the tiles keeps a set of their positions, so the index takes
+ * memory in proportion to the tiles it holds rather than to the size of the map.
+ *
+ * Counting is constant time, finding the tiles in a rectangle reads only the cells it covers and
+ * finding the nearest tile only looks at cells around the position, widening the search a ring
+ * of cells at a time. The index is safe to change and read from many threads at once; Map keeps
+ * it up to date as tiles are replaced, and PlayerMap as players move.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public final class TileIndex {
+
+    //Width and height of a cell, in tiles.
+    static final int CELL = 32;
+
+    private final char tile;
+    private final int width;
+    private final int height;
+    private final int cellsWide;
+    private final int cellsHigh;
+    private final ConcurrentHashMap<Integer, Set<Integer>> cells = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Constructor. Makes an empty index.
+     * @param tile - the kind of tile held.
+     * @param width - the width of the map.
+     * @param height - the height of the map.
+     */
+    TileIndex(char tile, int width, int height) {
+        this.tile = tile;
+        this.width = width;
+        this.height = height;
+        cellsWide = (width + CELL - 1) / CELL;
+        cellsHigh = (height + CELL - 1) / CELL;
+    }
+
+    /**
+     * Indexes tiles whose positions are already known, as listed by a compiled map.
+     * @param tile - the kind of tile.
+     * @param positions - the index of each tile, see Map.index.
+     * @param width - the width of the map.
+     * @param height - the height of the map.
+     * @return - the index.
+     */
+    static TileIndex of(char tile, int[] positions, int width, int height) {
+        TileIndex index = new TileIndex(tile, width, height);
+        for (int position : positions) {
+            index.add(position);
+        }
+        return index;
+    }
+
+    /**
+     * @return - a new index holding the same tiles, which can be changed without changing this one.
+     */
+    TileIndex copy() {
+        TileIndex copy = new TileIndex(tile, width, height);
+        for (Set<Integer> cell : cells.values()) {
+            for (int position : cell) {
+                copy.add(position);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return - the kind of tile held.
+     */
+    char tile() {
+        return tile;
+    }
+
+    /**
+     * Records a tile of this kind.
+     * @param position - its index on the map.
+     */
+    void add(int position) {
+        Set<Integer> cell = cells.computeIfAbsent(cellOf(position), c -> ConcurrentHashMap.newKeySet());
+        if (cell.add(position)) {
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets a tile, once it has been replaced.
+     * @param position - its index on the map.
+     */
+    void remove(int position) {
+        Set<Integer> cell = cells.get(cellOf(position));
+        if (cell != null && cell.remove(position)) {
+            count.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return - the number of tiles of this kind on the map.
+     */
+    int count() {
+        return count.get();
+    }
+
+    /**
+     * @param position - an index on the map.
+     * @return - whether a tile of this kind is there.
+     */
+    boolean contains(int position) {
+        Set<Integer> cell = cells.get(cellOf(position));
+        return cell != null && cell.contains(position);
+    }
+
+    /**
+     * Passes the index of every tile of this kind inside a rectangle to an action, in no
+     * particular order.
+     * @param top - y position of the top row, parts off the map are ignored.
+     * @param left - x position of the left column.
+     * @param bottom - y position of the bottom row, inclusive.
+     * @param right - x position of the right column, inclusive.
+     * @param action - given the index of each tile, see Map.index.
+     */
+    void forEachIn(int top, int left, int bottom, int right, IntConsumer action) {
+        top = Math.max(top, 0);
+        left = Math.max(left, 0);
+        bottom = Math.min(bottom, height - 1);
+        right = Math.min(right, width - 1);
+        if (top > bottom || left > right || count() == 0) {
+            return;
+        }
+        int firstY = top / CELL;
+        int firstX = left / CELL;
+        int lastY = bottom / CELL;
+        int lastX = right / CELL;
+        //A big rectangle, such as the whole map, is quicker to answer from the cells in use.
+        if ((long) (lastY - firstY + 1) * (lastX - firstX + 1) > cells.size()) {
+            for (Set<Integer> cell : cells.values()) {
+                within(cell, top, left, bottom, right, action);
+            }
+            return;
+        }
+        for (int cy = firstY; cy <= lastY; cy++) {
+            for (int cx = firstX; cx <= lastX; cx++) {
+                Set<Integer> cell = cells.get(cy * cellsWide + cx);
+                if (cell != null) {
+                    within(cell, top, left, bottom, right, action);
+                }
+            }
+        }
+    }
+
+    private void within(Set<Integer> cell, int top, int left, int bottom, int right, IntConsumer action) {
+        for (int position : cell) {
+            int y = position / width;
+            int x = position % width;
+            if (y >= top && y <= bottom && x >= left && x <= right) {
+                action.accept(position);
+            }
+        }
+    }
+
+    /**
+     * Finds the tile of this kind fewest steps away, ignoring walls.
+     * @param y - y map position
+     * @param x - x map position
+     * @return - the index of the nearest tile, or -1 if there are none.
+     */
+    int nearest(int y, int x) {
+        if (count() == 0) {
+            return -1;
+        }
+        int cellY = Math.min(Math.max(y, 0), height - 1) / CELL;
+        int cellX = Math.min(Math.max(x, 0), width - 1) / CELL;
+        int[] best = {-1, Integer.MAX_VALUE};
+        int rings = Math.max(cellsWide, cellsHigh);
+        for (int ring = 0; ring <= rings; ring++) {
+            //Any tile in this ring or further out is at least this many steps away.
+            if ((long) (ring - 1) * CELL >= best[1]) {
+                break;
+            }
+            //Once a ring is bigger than the number of cells in use, look at those instead.
+            if (8L * ring > cells.size()) {
+                for (Set<Integer> cell : cells.values()) {
+                    closest(cell, y, x, best);
+                }
+                break;
+            }
+            for (int cy = cellY - ring; cy <= cellY + ring; cy++) {
+                boolean edge = cy == cellY - ring || cy == cellY + ring;
+                for (int cx = cellX - ring; cx <= cellX + ring; cx += edge || ring == 0 ? 1 : 2 * ring) {
+                    if (cy >= 0 && cy < cellsHigh && cx >= 0 && cx < cellsWide) {
+                        Set<Integer> cell = cells.get(cy * cellsWide + cx);
+                        if (cell != null) {
+                            closest(cell, y, x, best);
+                        }
+                    }
+                }
+            }
+        }
+        return best[0];
+    }
+
+    /**
+     * Updates best, holding the closest position found so far and its distance, with the
+     * closest tile in a cell.
+     */
+    private void closest(Set<Integer> cell, int y, int x, int[] best) {
+        for (int position : cell) {
+            int distance = Math.abs(position / width - y) + Math.abs(position % width - x);
+            if (distance < best[1] || (distance == best[1] && position < best[0])) {
+                best[0] = position;
+                best[1] = distance;
+            }
+        }
+    }
+
+    private int cellOf(int position) {
+        return (position / width / CELL) * cellsWide + (position % width) / CELL;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * TileStore holds the tiles of a map row by row, hiding how they are stored. Small maps keep a
+ * byte per tile, see ByteTileStore. Very wide maps pack each tile into four bits, see
+ * PackedTileStore, which holds a 20000x20000 dungeon in about 200 MB rather than 800 MB.
+ * Maps too big even for that are read a chunk at a time from a chunk file, see ChunkedTileStore.
+ * Each game plays on an OverlayTileStore, holding only its own changes over a shared store.
+ *
+ * Tiles are added a row at a time while the map is read, see GrowableTileStore, then read and
+ * changed by index.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public abstract class TileStore {
+
+    //Tiles are found by an int index, see Map.index, so no map can hold more than this many.
+    static final long MAX_TILES = Integer.MAX_VALUE;
+
+    /**
+     * @return - whether tiles are only read in as they are needed, in which case nothing should
+     * walk over the whole map.
+     */
+    boolean isLazy() {
+        return false;
+    }
+
+    /**
+     * Lets go of anything held open, once the map is no longer played on.
+     */
+    void close() {
+    }
+
+    /**
+     * @return - the number of tiles held.
+     */
+    abstract int size();
+
+    /**
+     * @param index - the position of the tile, see Map.index.
+     * @return - the tile.
+     */
+    abstract char get(int index);
+
+    /**
+     * Changes a tile. Safe against changes to other tiles made at the same time.
+     * @param index - the position of the tile, see Map.index.
+     * @param tile - the new tile.
+     */
+    abstract void set(int index, char tile);
+
+    /**
+     * Copies a run of tiles, such as part of a row, into a char array.
+     * @param from - the position of the first tile.
+     * @param dest - where to copy the tiles.
+     * @param offset - the position in dest of the first tile.
+     * @param length - the number of tiles.
+     */
+    void decode(int from, char[] dest, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            dest[offset + i] = get(from + i);
+        }
+    }
+}
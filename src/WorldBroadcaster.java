@@ -0,0 +1,390 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * WorldBroadcaster sends the world map to every world view in a game. On each tick it builds a
+ * single frame of the map, with every player shown as p, and encodes it once for each protocol in
+ * use. The same bytes are then handed to every subscriber; the only per-client work is marking
+ * the client's own player as P, either by patching one byte of a keyframe or, for delta clients,
+ * with a one tile DLT line.
+ *
+ * The frame is kept from tick to tick. Each tick it reads again only the regions whose
+ * RegionVersions counters have moved since the last, so an idle game costs one sum of the
+ * change total and a busy one costs time in proportion to what changed, not to the map.
+ *
+ * Nothing polls for changes. The game wakes the broadcaster whenever it changes the map, see
+ * wake, and a tick is scheduled only then, so spectators hear of a move as soon as it is made and
+ * an idle game costs nothing. Every wake arriving before the tick has run shares it, and a
+ * coalescing window, chosen when the server is started, gathers a burst of moves into one frame.
+ *
+ * This replaces the Swing Timer each world view Server used to run, which rebuilt and encoded
+ * the whole map separately for every connection. There is one broadcaster per GameRoom, and the
+ * broadcasters of every room tick on the same thread.
+ *
+ * @author Callum Coles
+ * @version 1.0
+ * @release 18/10/2026
+ */
+public class WorldBroadcaster {
+
+    //How long to wait after a wake before ticking, gathering any other changes made meanwhile.
+    private final int coalesceDelay;
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final MapDelta sharedDelta = new MapDelta();
+    private final ScheduledExecutorService ticker;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean running;
+    private ScheduledFuture<?> ticking;
+
+    private char[] frame;
+    private int width;
+    private int height;
+    private long lastVersion = -1;
+    //The region counters the frame is up to date with, and the tiles changed this tick.
+    private int[] seen;
+    private int[] changedTiles = new int[64];
+    private int changedCount;
+
+    /**
+     * A world view connection which frames can be delivered to.
+     */
+    interface Subscriber {
+
+        /**
+         * @return - the GameLogic of the subscriber's player.
+         */
+        GameLogic getLogic();
+
+        /**
+         * @return - whether the subscriber asked for DLT lines rather than the whole map.
+         */
+        boolean wantsDeltas();
+
+        /**
+         * @return - whether the subscriber uses the binary protocol.
+         */
+        boolean usesBinary();
+
+        /**
+         * Sends already encoded bytes to the client. Called on the broadcaster thread.
+         * @param bytes - must not be changed, they may be shared with other subscribers.
+         */
+        void deliver(byte[] bytes);
+
+        /**
+         * Called on the broadcaster thread on every tick, after any frame has been delivered.
+         */
+        void tick();
+    }
+
+    /**
+     * The broadcaster's record of a subscriber.
+     */
+    final class Subscription {
+
+        private final Subscriber subscriber;
+        private volatile boolean needsKeyframe = true;
+        private int lastSelf = -1;
+
+        private Subscription(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Asks for the whole map to be sent on the next tick, as the MAP command does.
+         */
+        void requestKeyframe() {
+            needsKeyframe = true;
+            wake();
+        }
+
+        /**
+         * Stops sending frames to the subscriber.
+         */
+        void cancel() {
+            subscriptions.remove(this);
+            //The next tick lets go of the frame if this was the last world view.
+            wake();
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param ticker - the thread the tick is run on, which may be shared with other broadcasters.
+     * @param coalesceDelay - milliseconds to wait after a wake before ticking, 0 to tick at once.
+     */
+    WorldBroadcaster(ScheduledExecutorService ticker, int coalesceDelay) {
+        this.ticker = ticker;
+        this.coalesceDelay = Math.max(0, coalesceDelay);
+    }
+
+    /**
+     * Starts ticking whenever woken.
+     */
+    void start() {
+        running = true;
+    }
+
+    /**
+     * Stops ticking, dropping any tick already scheduled.
+     */
+    synchronized void stop() {
+        running = false;
+        if (ticking != null) {
+            ticking.cancel(false);
+            ticking = null;
+        }
+    }
+
+    /**
+     * Schedules a tick, unless one is already waiting to run. Called by the game after every
+     * change, from any thread, so it does no more than read a flag once a tick is waiting.
+     */
+    void wake() {
+        if (!running || scheduled.get() || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            if (running) {
+                ticking = ticker.schedule(this::tick, coalesceDelay, TimeUnit.MILLISECONDS);
+            } else {
+                scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Adds a world view. The whole map is sent to it straight away.
+     * @param subscriber - the connection to send frames to.
+     * @return - the subscription, used to ask for keyframes and to unsubscribe.
+     */
+    Subscription subscribe(Subscriber subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        subscriptions.add(subscription);
+        wake();
+        return subscription;
+    }
+
+    /**
+     * Builds and sends a frame if the map has changed or a subscriber needs a keyframe, then lets
+     * every subscriber run its own checks. A wake during the tick schedules another.
+     */
+    private void tick() {
+        scheduled.set(false);
+        try {
+            if (subscriptions.isEmpty()) {
+                //The frame is as big as the map, so it is only kept while somebody is watching.
+                frame = null;
+                seen = null;
+                lastVersion = -1;
+                return;
+            }
+            broadcastFrame();
+            for (Subscription subscription : subscriptions) {
+                subscription.subscriber.tick();
+            }
+        } catch (RuntimeException e) {
+            //One bad tick must not stop the schedule.
+            System.out.println("World broadcast failed: " + e);
+        }
+    }
+
+    private void broadcastFrame() {
+        GameLogic source = subscriptions.get(0).subscriber.getLogic();
+        boolean keyframeWanted = false;
+        for (Subscription subscription : subscriptions) {
+            keyframeWanted |= subscription.needsKeyframe;
+        }
+        long version = source.getMapVersion();
+        if (version == lastVersion && !keyframeWanted) {
+            return;
+        }
+        lastVersion = version;
+
+        changedCount = 0;
+        String update;
+        if (frame == null || sharedDelta.keyframeDue(frame.length)) {
+            buildFrame(source);
+            update = sharedDelta.keyframe(frame, width);
+        } else {
+            source.getRegionVersions().forEachChanged(seen, region -> refreshRegion(source, region));
+            update = sharedDelta.changed(frame, width, changedTiles, changedCount);
+        }
+
+        //The shared stream for delta subscribers which are already in step.
+        Encoded shared = null;
+        if (update != null) {
+            shared = new Encoded(update);
+        }
+        boolean sharedIsKeyframe = update != null && update.startsWith(MapDelta.KEYFRAME_PREFIX);
+        Encoded keyframe = sharedIsKeyframe ? shared : null;
+        boolean changed = update != null;
+
+        for (Subscription subscription : subscriptions) {
+            Subscriber subscriber = subscription.subscriber;
+            boolean sendKeyframe = subscription.needsKeyframe || sharedIsKeyframe
+                    || (changed && !subscriber.wantsDeltas());
+            if (!sendKeyframe && !changed) {
+                continue;
+            }
+            subscription.needsKeyframe = false;
+
+            GameLogic logic = subscriber.getLogic();
+            int self = selfIndex(logic, frame);
+
+            if (sendKeyframe) {
+                if (keyframe == null) {
+                    keyframe = new Encoded(MapDelta.encodeKeyframe(frame, width));
+                }
+                if (subscriber.wantsDeltas()) {
+                    subscriber.deliver(keyframe.bytes(subscriber.usesBinary()));
+                    deliverSelf(subscriber, -1, self);
+                } else {
+                    subscriber.deliver(keyframe.withSelf(subscriber.usesBinary(), self, width));
+                }
+            } else {
+                subscriber.deliver(shared.bytes(subscriber.usesBinary()));
+                if (self != subscription.lastSelf || (self >= 0 && wasChanged(self))) {
+                    //The tile the player left only needs restoring if the shared stream did not.
+                    int left = subscription.lastSelf != self && !wasChanged(subscription.lastSelf)
+                            ? subscription.lastSelf : -1;
+                    deliverSelf(subscriber, left, self);
+                }
+            }
+            subscription.lastSelf = self;
+        }
+    }
+
+    /**
+     * Builds the whole shared frame, in which every player is shown as p, with one call into the
+     * engine. The region counters are taken first, so a change made while copying is read again
+     * on the next tick.
+     * @param source - any GameLogic in the game, they all share the same map.
+     */
+    private void buildFrame(GameLogic source) {
+        width = source.mapWidth();
+        height = source.mapHeight();
+        seen = source.getRegionVersions().snapshot();
+        if (frame == null || frame.length != width * height) {
+            frame = new char[width * height];
+        }
+        source.writeWorldFrame(frame);
+    }
+
+    /**
+     * Reads one region of the frame again, recording every tile which has changed.
+     * @param source - any GameLogic in the game.
+     * @param region - the number of the region, see RegionVersions.forEachChanged.
+     */
+    private void refreshRegion(GameLogic source, int region) {
+        int regionsWide = source.getRegionVersions().regionsWide();
+        int top = region / regionsWide * RegionVersions.REGION_SIZE;
+        int left = region % regionsWide * RegionVersions.REGION_SIZE;
+        int bottom = Math.min(top + RegionVersions.REGION_SIZE, height);
+        int right = Math.min(left + RegionVersions.REGION_SIZE, width);
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                char tile = source.worldTile(y, x);
+                int i = y * width + x;
+                if (frame[i] != tile) {
+                    frame[i] = tile;
+                    if (changedCount == changedTiles.length) {
+                        changedTiles = Arrays.copyOf(changedTiles, changedCount * 2);
+                    }
+                    changedTiles[changedCount++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return - whether a frame tile was changed this tick.
+     */
+    private boolean wasChanged(int i) {
+        for (int c = 0; c < changedCount; c++) {
+            if (changedTiles[c] == i) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return - the frame index of the subscriber's own player, or -1 if it is not on the map.
+     */
+    private int selfIndex(GameLogic logic, char[] frame) {
+        int self = logic.getPlayerYPos() * width + logic.getPlayerXPos();
+        if (logic.getPlayerXPos() < 0 || logic.getPlayerXPos() >= width || self < 0 || self >= frame.length
+                || frame[self] != 'p') {
+            return -1;
+        }
+        return self;
+    }
+
+    /**
+     * Sends a delta subscriber the single tile holding its own player, and the tile it left if
+     * that still shows P.
+     */
+    private void deliverSelf(Subscriber subscriber, int left, int self) {
+        if (self < 0 && left < 0) {
+            return;
+        }
+        StringBuilder overlay = new StringBuilder(MapDelta.PREFIX);
+        if (left >= 0) {
+            MapDelta.appendTile(overlay, left / width, left % width, frame[left]);
+        }
+        if (self >= 0) {
+            MapDelta.appendTile(overlay, self / width, self % width, 'P');
+        }
+        subscriber.deliver(new Encoded(overlay.toString()).bytes(subscriber.usesBinary()));
+    }
+
+    /**
+     * A message together with its encodings, each made at most once.
+     */
+    private static final class Encoded {
+
+        private final String message;
+        private byte[] text;
+        private byte[] binary;
+
+        Encoded(String message) {
+            this.message = message;
+        }
+
+        byte[] bytes(boolean useBinary) {
+            if (useBinary) {
+                if (binary == null) {
+                    binary = BinaryProtocol.encodeReply(message);
+                }
+                return binary;
+            }
+            if (text == null) {
+                text = (message + "\n").getBytes(StandardCharsets.UTF_8);
+            }
+            return text;
+        }
+
+        /**
+         * Copies a keyframe with one tile changed to P. Tiles are ASCII, so the byte offset of a
+         * tile is its character offset after any binary length prefix.
+         */
+        byte[] withSelf(boolean useBinary, int self, int width) {
+            byte[] shared = bytes(useBinary);
+            if (self < 0) {
+                return shared;
+            }
+            int prefix = useBinary ? shared.length - message.length() : 0;
+            int rowLength = MapDelta.KEYFRAME_PREFIX.length() + width + 1;
+            byte[] copy = shared.clone();
+            copy[prefix + (self / width) * rowLength + MapDelta.KEYFRAME_PREFIX.length() + self % width] = 'P';
+            return copy;
+        }
+    }
+}
@@ -455,7 +455,9 @@ public class WorldGUI extends JFrame {
             public void actionPerformed(ActionEvent evt) {
                 gameData = new ArrayList<>();
                 if(checkComm()){
-                    setupGodMap(0, 3);
+                    if(!gameData.isEmpty()) {
+                        setupGodMap(0, 3);
+                    }
                     displayGodMap();
                 }
                 if(win){
@@ -551,7 +553,7 @@ public class WorldGUI extends JFrame {
         communicate( "Connected to: " + socket.getInetAddress() );
 
         client = new Client(socket);
-        client.initialHandshake(true);
+        client.initialHandshake(true, false, true);
         new Thread(new ClientListener(socket, communication)).start();
         firstCheck();
         setupGame();
@@ -653,6 +655,10 @@ public class WorldGUI extends JFrame {
                     lose = true;
                 }else if(newLine.length() == 22 && newLine.charAt(21) == '!'){
                     win = true;
+                }else if(newLine.startsWith(MapDelta.PREFIX)){
+                    applyKeyframe();
+                    MapDelta.apply(newLine, godMap);
+                    somePrinted = true;
                 }else if(newLine.charAt(0) != 'M' && newLine.charAt(1) != 'A' && newLine.charAt(2) != 'P'){
                     processString(newLine);
                     somePrinted = false;
@@ -665,6 +671,20 @@ public class WorldGUI extends JFrame {
         return somePrinted;
     }
 
+    /**
+     * Copies any keyframe rows received so far straight into the god map, so that a delta
+     * which follows them is applied on top of them rather than being overwritten later.
+     */
+    private void applyKeyframe(){
+        for(int i = 0; i<gameData.size() && i<mapHeight; i++){
+            String row = gameData.get(i);
+            for(int j = 0; j<mapWidth; j++){
+                godMap[i][j] = row.charAt(j + MapDelta.KEYFRAME_PREFIX.length());
+            }
+        }
+        gameData.clear();
+    }
+
     /**
      * Check communication object, return whether or not text has been received.
      * @param fromLook - has this call come via the look function.
@@ -681,6 +701,10 @@ public class WorldGUI extends JFrame {
                 if(newLine.charAt(0) == 'M' && newLine.charAt(1) == 'A' && newLine.charAt(2) == 'P'){
                     gameData.add(newLine);
                     receivedMapData = true;
+                } else if(newLine.startsWith(MapDelta.PREFIX)){
+                    applyKeyframe();
+                    MapDelta.apply(newLine, godMap);
+                    displayGodMap();
                 } else {
                     processString(newLine);
                     somePrinted = true;
@@ -690,7 +714,7 @@ public class WorldGUI extends JFrame {
                     }
                 }
             }
-            if(receivedMapData){
+            if(receivedMapData && !gameData.isEmpty()){
                 setupGodMap(0,3);
                 displayGodMap();
             }